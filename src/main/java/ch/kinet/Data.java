@@ -16,15 +16,30 @@
  */
 package ch.kinet;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Base64;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+import org.json.JSONObject;
 
 public abstract class Data implements Json {
 
@@ -90,6 +105,44 @@ public abstract class Data implements Json {
         }
     }
 
+    /**
+     * Creates data backed by a file. The content is read from disk when it is consumed and never held in memory
+     * unless toBytes is called. The file must exist as long as the data is used.
+     *
+     * @param path the file
+     * @param fileName file name presented to clients or null
+     * @return data backed by the file
+     */
+    public static Data file(Path path, String fileName) {
+        return file(path, fileName, guessMimeType(fileName));
+    }
+
+    public static Data file(Path path, String fileName, String mimeType) {
+        return file(path, fileName, mimeType, null);
+    }
+
+    /**
+     * Creates data backed by a file which runs an action when it is released, e.g. to delete the file once it is no
+     * longer read. The action runs at most once.
+     *
+     * @param path the file
+     * @param fileName file name presented to clients or null
+     * @param mimeType the MIME type
+     * @param releaseAction action run by release or null
+     * @return data backed by the file
+     */
+    public static Data file(Path path, String fileName, String mimeType, Runnable releaseAction) {
+        if (path == null) {
+            throw new NullPointerException("path");
+        }
+
+        return new FileData(path, fileName, mimeType, releaseAction);
+    }
+
+    public static Data binary(byte[] content, String fileName, String mimeType) {
+        return new BinaryData(content, fileName, mimeType);
+    }
+
     public static Data binary(InputStream in, String fileName, String mimeType) throws IOException {
         try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
             final byte[] buffer = new byte[4096];
@@ -102,6 +155,23 @@ public abstract class Data implements Json {
         }
     }
 
+    /**
+     * Creates data which is read from the specified stream when it is consumed. The content is only held in memory if
+     * toBytes is called. The stream can be consumed only once.
+     *
+     * @param in the input stream
+     * @param fileName file name or null
+     * @param mimeType MIME type
+     * @return data backed by the stream
+     */
+    public static Data stream(InputStream in, String fileName, String mimeType) {
+        if (in == null) {
+            throw new NullPointerException("in");
+        }
+
+        return new StreamData(in, fileName, mimeType);
+    }
+
     public static Data csv(String content, String fileName) {
         return new TextData(content, fileName, MIME_TYPE_CSV);
     }
@@ -118,6 +188,19 @@ public abstract class Data implements Json {
         return new JsonData(content, null);
     }
 
+    /**
+     * Creates JSON data consisting of an object with a single array which is written element by element as the stream
+     * is consumed. The complete JSON document is never held in memory. The data can only be written once, the stream
+     * is closed afterwards.
+     *
+     * @param key key of the array in the JSON object
+     * @param elements elements of the array
+     * @return JSON data
+     */
+    public static Data jsonStream(String key, Stream<JsonObject> elements) {
+        return new JsonStreamData(key, elements);
+    }
+
     public static Data jsonEncodedBinary(JsonObject json) {
         String mimeType = json.getString(JSON_MIME_TYPE);
         String fileName = json.getString(JSON_FILE_NAME);
@@ -164,6 +247,15 @@ public abstract class Data implements Json {
 
     public abstract boolean isEmpty();
 
+    /**
+     * Returns true if the content is produced while it is written and cannot be materialized cheaply.
+     *
+     * @return true for streamed content
+     */
+    public boolean isStreamed() {
+        return false;
+    }
+
     public final String fileName() {
         return fileName;
     }
@@ -174,6 +266,50 @@ public abstract class Data implements Json {
 
     public abstract byte[] toBytes();
 
+    /**
+     * Writes the content to the specified output stream. The stream is not closed.
+     *
+     * @param out output stream
+     * @throws IOException if writing fails
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(toBytes());
+    }
+
+    /**
+     * Returns the file backing this data or null if the data is held in memory.
+     *
+     * @return path of the backing file or null
+     */
+    public Path path() {
+        return null;
+    }
+
+    /**
+     * Returns the content as byte buffer. File backed data is memory mapped.
+     *
+     * @return read only byte buffer
+     */
+    public ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(toBytes()).asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the content as input stream. For streamed data, the underlying stream is returned.
+     *
+     * @return input stream
+     */
+    public InputStream toInputStream() {
+        return new ByteArrayInputStream(toBytes());
+    }
+
+    /**
+     * Releases resources held for the content. The server calls this after the response body has been written, the
+     * data must not be read afterwards.
+     */
+    public void release() {
+    }
+
     public final Binary toBinary() {
         return Binary.from(toBytes());
     }
@@ -245,6 +381,95 @@ public abstract class Data implements Json {
         }
     }
 
+    private static class FileData extends Data {
+
+        private final Path path;
+        private final AtomicReference<Runnable> releaseAction;
+
+        private FileData(Path path, String fileName, String mimeType, Runnable releaseAction) {
+            super(fileName, mimeType);
+            this.path = path;
+            this.releaseAction = new AtomicReference<>(releaseAction);
+        }
+
+        @Override
+        public boolean isEmpty() {
+            try {
+                return Files.size(path) == 0;
+            }
+            catch (IOException ex) {
+                return true;
+            }
+        }
+
+        @Override
+        public boolean isStreamed() {
+            return true;
+        }
+
+        @Override
+        public Path path() {
+            return path;
+        }
+
+        @Override
+        public void release() {
+            Runnable action = releaseAction.getAndSet(null);
+            if (action != null) {
+                action.run();
+            }
+        }
+
+        @Override
+        public ByteBuffer toByteBuffer() {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        @Override
+        public byte[] toBytes() {
+            try {
+                return Files.readAllBytes(path);
+            }
+            catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        @Override
+        public InputStream toInputStream() {
+            try {
+                return Files.newInputStream(path);
+            }
+            catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        @Override
+        public JsonObject toJsonTerse() {
+            JsonObject result = JsonObject.create();
+            result.put(JSON_DATA, encodeBase64(toBytes()));
+            result.put(JSON_FILE_NAME, fileName());
+            result.put(JSON_MIME_TYPE, mimeType());
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return toJsonTerse().toString();
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            Files.copy(path, out);
+        }
+    }
+
     private static class JsonData extends Data {
 
         private final JsonObject content;
@@ -275,6 +500,146 @@ public abstract class Data implements Json {
         }
     }
 
+    private static class JsonStreamData extends Data {
+
+        private final Stream<JsonObject> elements;
+        private final String key;
+
+        private JsonStreamData(String key, Stream<JsonObject> elements) {
+            super(null, MIME_TYPE_JSON);
+            this.elements = elements;
+            this.key = key;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return false;
+        }
+
+        @Override
+        public boolean isStreamed() {
+            return true;
+        }
+
+        @Override
+        public byte[] toBytes() {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try {
+                writeTo(out);
+            }
+            catch (IOException ex) {
+                // cannot happen when writing to memory
+            }
+
+            return out.toByteArray();
+        }
+
+        @Override
+        public JsonObject toJsonTerse() {
+            return JsonObject.create(new String(toBytes(), StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public String toString() {
+            return new String(toBytes(), StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            // closing the stream releases its resources, e.g. the result set of a database query
+            try (Stream<JsonObject> source = elements) {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+                writer.write('{');
+                writer.write(JSONObject.quote(key));
+                writer.write(":[");
+                Iterator<JsonObject> it = source.iterator();
+                boolean first = true;
+                while (it.hasNext()) {
+                    JsonObject element = it.next();
+                    if (element == null) {
+                        continue;
+                    }
+
+                    if (first) {
+                        first = false;
+                    }
+                    else {
+                        writer.write(',');
+                    }
+
+                    element.getImp().write(writer);
+                }
+
+                writer.write("]}");
+                writer.flush();
+            }
+        }
+    }
+
+    private static class StreamData extends Data {
+
+        private byte[] content;
+        private final InputStream in;
+
+        private StreamData(InputStream in, String fileName, String mimeType) {
+            super(fileName, mimeType);
+            this.in = in;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return false;
+        }
+
+        @Override
+        public boolean isStreamed() {
+            return content == null;
+        }
+
+        @Override
+        public byte[] toBytes() {
+            if (content == null) {
+                try {
+                    content = in.readAllBytes();
+                }
+                catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+
+            return content;
+        }
+
+        @Override
+        public InputStream toInputStream() {
+            return content == null ? in : new ByteArrayInputStream(content);
+        }
+
+        @Override
+        public JsonObject toJsonTerse() {
+            JsonObject result = JsonObject.create();
+            result.put(JSON_DATA, encodeBase64(toBytes()));
+            result.put(JSON_FILE_NAME, fileName());
+            result.put(JSON_MIME_TYPE, mimeType());
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return toJsonTerse().toString();
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            if (content == null) {
+                in.transferTo(out);
+            }
+            else {
+                out.write(content);
+            }
+        }
+    }
+
     private static class TextData extends Data {
 
         private final String content;
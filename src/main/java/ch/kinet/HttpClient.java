@@ -38,8 +38,7 @@ import javax.net.ssl.TrustManagerFactory;
 
 public final class HttpClient {
 
-    private SSLContext sslContext;
-    private final String keyStoreType;
+    private final SSLContext sslContext;
 
     public static HttpClient create() {
         return new HttpClient();
@@ -57,23 +56,46 @@ public final class HttpClient {
     }
 
     private HttpClient() {
-        keyStoreType = KeyStore.getDefaultType();
         sslContext = null;
     }
 
     private HttpClient(String managerFactoryType, String keyStoreType, String keyStorePath, char[] keyStorePassword,
                        char[] keyPassword, String trustStorePath, char[] trustStorePassword) {
+        sslContext = createSSLContext("TLSv1.2", managerFactoryType, keyStoreType, keyStorePath, keyStorePassword,
+                                      keyPassword, trustStorePath, trustStorePassword);
+    }
+
+    /**
+     * Creates an SSL context from key and trust stores. Key or trust store may be omitted by passing null as path.
+     * Also used for the TLS listener of the HTTP server.
+     *
+     * @param protocol the protocol, e.g. "TLS" or "TLSv1.2"
+     * @param managerFactoryType the key and trust manager algorithm or null for the default
+     * @param keyStoreType the key store type or null for the default
+     * @param keyStorePath path of the key store or null
+     * @param keyStorePassword password of the key store
+     * @param keyPassword password of the key
+     * @param trustStorePath path of the trust store or null
+     * @param trustStorePassword password of the trust store
+     * @return the SSL context
+     */
+    public static SSLContext createSSLContext(String protocol, String managerFactoryType, String keyStoreType,
+                                              String keyStorePath, char[] keyStorePassword, char[] keyPassword,
+                                              String trustStorePath, char[] trustStorePassword) {
         if (Util.isEmpty(managerFactoryType)) {
             managerFactoryType = KeyManagerFactory.getDefaultAlgorithm();
         }
 
-        this.keyStoreType = Util.isEmpty(keyStoreType) ? KeyStore.getDefaultType() : keyStoreType;
+        if (Util.isEmpty(keyStoreType)) {
+            keyStoreType = KeyStore.getDefaultType();
+        }
+
         try {
             // init key manager
             KeyManager[] kms = null;
             if (keyStorePath != null) {
                 KeyManagerFactory kmf = KeyManagerFactory.getInstance(managerFactoryType);
-                kmf.init(loadKeyStore(keyStorePath, keyStorePassword), keyPassword);
+                kmf.init(loadKeyStore(keyStoreType, keyStorePath, keyStorePassword), keyPassword);
                 kms = kmf.getKeyManagers();
             }
 
@@ -81,12 +103,13 @@ public final class HttpClient {
             TrustManager[] tms = null;
             if (trustStorePath != null) {
                 TrustManagerFactory tmf = TrustManagerFactory.getInstance(managerFactoryType);
-                tmf.init(loadKeyStore(trustStorePath, trustStorePassword));
+                tmf.init(loadKeyStore(keyStoreType, trustStorePath, trustStorePassword));
                 tms = tmf.getTrustManagers();
             }
 
-            sslContext = SSLContext.getInstance("TLSv1.2");
-            sslContext.init(kms, tms, null);
+            SSLContext result = SSLContext.getInstance(protocol);
+            result.init(kms, tms, null);
+            return result;
         }
         catch (final Exception ex) {
             throw new HttpException(ex);
@@ -115,6 +138,12 @@ public final class HttpClient {
             if (connection instanceof HttpURLConnection) {
                 HttpURLConnection conn = (HttpURLConnection) connection;
                 conn.setRequestMethod(method);
+                String traceId = Trace.currentId();
+                if (traceId != null) {
+                    // lets the called service correlate its logs with the request
+                    conn.setRequestProperty(Trace.REQUEST_ID_HEADER, traceId);
+                }
+
                 return new HttpConnection(conn);
             }
         }
@@ -125,7 +154,7 @@ public final class HttpClient {
         return null;
     }
 
-    private KeyStore loadKeyStore(String path, char[] password) throws Exception {
+    private static KeyStore loadKeyStore(String keyStoreType, String path, char[] password) throws Exception {
         KeyStore result = KeyStore.getInstance(keyStoreType);
         FileInputStream fi = null;
         try {
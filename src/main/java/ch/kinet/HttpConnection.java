@@ -56,6 +56,46 @@ public final class HttpConnection {
     }
 
     public String readResponse() {
+        Trace.Span span = Trace.span("http", describe());
+        try {
+            return doReadResponse();
+        }
+        finally {
+            span.close();
+        }
+    }
+
+    public void setHeader(String key, String value) {
+        connection.setRequestProperty(key, value);
+    }
+
+    public void writeBody(String body) {
+        if (Util.isEmpty(body)) {
+            return;
+        }
+
+        Trace.Span span = Trace.span("http send", describe());
+        try {
+            connection.setDoOutput(true);
+            byte[] bodyData = body.getBytes("UTF8");
+            connection.setRequestProperty("Content-Length", Integer.toString(bodyData.length));
+            connection.getOutputStream().write(bodyData);
+        }
+        catch (final IOException ex) {
+            ex.printStackTrace();
+        }
+        finally {
+            span.close();
+        }
+    }
+
+    private String describe() {
+        // the query may contain tokens, so it is left out
+        return connection.getRequestMethod() + " " + connection.getURL().getProtocol() + "://" +
+               connection.getURL().getAuthority() + connection.getURL().getPath();
+    }
+
+    private String doReadResponse() {
         try {
             if (connection.getResponseCode() >= 400) {
                 return null;
@@ -86,24 +126,4 @@ public final class HttpConnection {
             throw new HttpException(ex);
         }
     }
-
-    public void setHeader(String key, String value) {
-        connection.setRequestProperty(key, value);
-    }
-
-    public void writeBody(String body) {
-        if (Util.isEmpty(body)) {
-            return;
-        }
-
-        try {
-            connection.setDoOutput(true);
-            byte[] bodyData = body.getBytes("UTF8");
-            connection.setRequestProperty("Content-Length", Integer.toString(bodyData.length));
-            connection.getOutputStream().write(bodyData);
-        }
-        catch (final IOException ex) {
-            ex.printStackTrace();
-        }
-    }
 }
@@ -16,12 +16,14 @@
  */
 package ch.kinet;
 
+import java.io.Reader;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.util.Set;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 
 public final class JsonObject extends Dict implements Json {
 
@@ -35,6 +37,16 @@ public final class JsonObject extends Dict implements Json {
         return new JsonObject(new JSONObject(source));
     }
 
+    /**
+     * Parses a JSON object directly from a reader without reading the source into a string first.
+     *
+     * @param source the reader
+     * @return the parsed object
+     */
+    public static JsonObject create(Reader source) {
+        return new JsonObject(new JSONObject(new JSONTokener(source)));
+    }
+
     public static JsonObject create(JsonObject original) {
         String[] keys = original.keySet().toArray(new String[original.keySet().size()]);
         return new JsonObject(new JSONObject(original.imp, keys));
@@ -20,6 +20,7 @@ import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 public final class Log {
@@ -36,6 +37,7 @@ public final class Log {
 
     private final Object lock;
     private final List<Entry> entries;
+    private final List<Consumer<Entry>> listeners;
     private boolean debug;
     private boolean hasError;
     private boolean hasInfo;
@@ -48,9 +50,23 @@ public final class Log {
     private Log() {
         debug = true;
         entries = new ArrayList<>();
+        listeners = new ArrayList<>();
         lock = new Object();
     }
 
+    /**
+     * Registers a listener which is called for every new entry. The listener is first called for all existing entries,
+     * so it sees every entry exactly once. Listeners are called while the log is locked and must not block.
+     *
+     * @param listener the listener
+     */
+    public void addListener(Consumer<Entry> listener) {
+        synchronized (lock) {
+            entries.forEach(listener);
+            listeners.add(listener);
+        }
+    }
+
     public void clear() {
         synchronized (lock) {
             entries.clear();
@@ -121,6 +137,12 @@ public final class Log {
         return result;
     }
 
+    public void removeListener(Consumer<Entry> listener) {
+        synchronized (lock) {
+            listeners.remove(listener);
+        }
+    }
+
     public void setDebug(boolean debug) {
         synchronized (lock) {
             this.debug = debug;
@@ -166,6 +188,7 @@ public final class Log {
             ++nextEntryId;
             Entry entry = new Entry(nextEntryId, level, message);
             entries.add(entry);
+            listeners.forEach(listener -> listener.accept(entry));
             switch (level) {
                 case info:
                     hasInfo = true;
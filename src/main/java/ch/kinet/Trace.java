@@ -0,0 +1,387 @@
+/*
+ * Copyright (C) 2026 by Sebastian Forster, Stefan Rothe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY); without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.kinet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Records timed spans of a single unit of work, e.g. an HTTP request. The trace is bound to the threads working on
+ * it, so layers like database access or directory lookups can add spans without passing the trace around. Each
+ * thread keeps its own current span, so spans opened on different threads nest independently. Spans opened while no
+ * trace is active cost nothing. A trace records a limited number of spans, further spans are only counted.
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ * Trace.Span span = Trace.span("sql", statement);
+ * try {
+ *     ...
+ * }
+ * finally {
+ *     span.close();
+ * }
+ * </pre>
+ */
+public final class Trace implements Json {
+
+    /**
+     * Header carrying the trace id between services.
+     */
+    public static final String REQUEST_ID_HEADER = "X-Request-Id";
+    private static final ThreadLocal<Span> CURRENT = new ThreadLocal<>();
+    private static final int MAX_DETAIL_LENGTH = 200;
+    private static final int MAX_SPANS = 1000;
+    private static final Span NO_SPAN = new Span(null, null, null, null);
+    private int droppedSpans;
+    private final String id;
+    private final Object lock = new Object();
+    private final Span root;
+    private int spanCount;
+
+    /**
+     * Starts a trace and binds it to the current thread.
+     *
+     * @param id the trace id or null to generate a random id
+     * @param name name of the root span
+     * @return the trace
+     */
+    public static Trace start(String id, String name) {
+        if (name == null) {
+            throw new NullPointerException("name");
+        }
+
+        Trace result = new Trace(Util.isEmpty(id) ? createId() : id, name);
+        CURRENT.set(result.root);
+        return result;
+    }
+
+    /**
+     * Returns the trace bound to the current thread.
+     *
+     * @return the trace or null if no trace is active
+     */
+    public static Trace current() {
+        Span span = CURRENT.get();
+        return span == null ? null : span.trace;
+    }
+
+    /**
+     * Returns the current span of the current thread, e.g. to continue it on another thread with
+     * {@link Span#activate()}.
+     *
+     * @return the span, which does nothing if no trace is active
+     */
+    public static Span currentSpan() {
+        Span result = CURRENT.get();
+        return result == null ? NO_SPAN : result;
+    }
+
+    /**
+     * Returns the id of the trace bound to the current thread.
+     *
+     * @return the trace id or null if no trace is active
+     */
+    public static String currentId() {
+        Span span = CURRENT.get();
+        return span == null ? null : span.trace.id;
+    }
+
+    public static Span span(String name) {
+        return span(name, null);
+    }
+
+    /**
+     * Opens a span in the trace bound to the current thread. The span ends when it is closed.
+     *
+     * @param name name of the span, e.g. "sql"
+     * @param detail description of the operation, e.g. the SQL statement, may be null
+     * @return the span
+     */
+    public static Span span(String name, String detail) {
+        Span parent = CURRENT.get();
+        if (parent == null) {
+            return NO_SPAN;
+        }
+
+        return parent.trace.open(parent, name, detail);
+    }
+
+    private static String createId() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        StringBuilder result = new StringBuilder(16);
+        String value = Long.toHexString(random.nextLong());
+        for (int i = value.length(); i < 16; ++i) {
+            result.append('0');
+        }
+
+        result.append(value);
+        return result.toString();
+    }
+
+    private Trace(String id, String name) {
+        this.id = id;
+        this.root = new Span(this, null, name, null);
+    }
+
+    /**
+     * Binds this trace to the current thread, e.g. when work of a request continues on another thread. Spans opened
+     * on the thread become children of the root span.
+     */
+    public void activate() {
+        root.activate();
+    }
+
+    /**
+     * Removes this trace from the current thread.
+     */
+    public void deactivate() {
+        Span span = CURRENT.get();
+        if (span != null && span.trace == this) {
+            CURRENT.remove();
+        }
+    }
+
+    /**
+     * Ends the root span and removes this trace from the current thread.
+     */
+    public void finish() {
+        root.close();
+        deactivate();
+    }
+
+    public long getDurationNanos() {
+        return root.getDurationNanos();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public JsonObject toJsonTerse() {
+        synchronized (lock) {
+            JsonObject result = root.toJson(root.start);
+            result.put("id", id);
+            if (droppedSpans > 0) {
+                result.put("droppedSpans", droppedSpans);
+            }
+
+            return result;
+        }
+    }
+
+    @Override
+    public JsonObject toJsonVerbose() {
+        return toJsonTerse();
+    }
+
+    /**
+     * Returns the span tree on a single line, e.g.
+     * <code>trace 3f2a... GET /courses 152.3ms [sql 120.1ms (SELECT ...), ldap 20.4ms]</code>.
+     *
+     * @return the span tree
+     */
+    public String toLogLine() {
+        StringBuilder result = new StringBuilder();
+        result.append("trace ");
+        result.append(id);
+        result.append(' ');
+        synchronized (lock) {
+            root.append(result);
+            if (droppedSpans > 0) {
+                result.append(" (");
+                result.append(droppedSpans);
+                result.append(" spans dropped)");
+            }
+        }
+
+        return result.toString();
+    }
+
+    @Override
+    public String toString() {
+        return toLogLine();
+    }
+
+    private Span open(Span parent, String name, String detail) {
+        Span result;
+        synchronized (lock) {
+            if (spanCount >= MAX_SPANS) {
+                // bulk operations must not keep an unbounded span tree alive until the request ends
+                ++droppedSpans;
+                return NO_SPAN;
+            }
+
+            ++spanCount;
+            // the current span of the thread may have been closed out of order or by another thread
+            parent = parent.openAncestor();
+            result = new Span(this, parent, name, detail);
+            parent.addChild(result);
+        }
+
+        CURRENT.set(result);
+        return result;
+    }
+
+    private void close(Span span) {
+        Span next = null;
+        synchronized (lock) {
+            if (span.end != 0) {
+                return;
+            }
+
+            span.end = System.nanoTime();
+            if (span.parent != null) {
+                next = span.parent.openAncestor();
+            }
+        }
+
+        // only the thread which has the span as current span moves on, other threads skip it when opening spans
+        if (next != null && CURRENT.get() == span) {
+            CURRENT.set(next);
+        }
+    }
+
+    public static final class Span implements AutoCloseable {
+
+        private List<Span> children;
+        private final String detail;
+        private volatile long end;
+        private final String name;
+        private final Span parent;
+        private final long start;
+        private final Trace trace;
+
+        private Span(Trace trace, Span parent, String name, String detail) {
+            this.detail = detail;
+            this.name = name;
+            this.parent = parent;
+            this.start = trace == null ? 0 : System.nanoTime();
+            this.trace = trace;
+        }
+
+        /**
+         * Binds this span to the current thread, so spans opened on the thread become its children.
+         */
+        public void activate() {
+            if (trace != null) {
+                CURRENT.set(this);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (trace != null) {
+                trace.close(this);
+            }
+        }
+
+        /**
+         * Removes the trace of this span from the current thread.
+         */
+        public void deactivate() {
+            if (trace != null) {
+                trace.deactivate();
+            }
+        }
+
+        public long getDurationNanos() {
+            long result = end;
+            return (result == 0 ? System.nanoTime() : result) - start;
+        }
+
+        private void addChild(Span child) {
+            if (children == null) {
+                children = new ArrayList<>();
+            }
+
+            children.add(child);
+        }
+
+        private Span openAncestor() {
+            Span result = this;
+            while (result.end != 0 && result.parent != null) {
+                result = result.parent;
+            }
+
+            return result;
+        }
+
+        private void append(StringBuilder result) {
+            result.append(name);
+            result.append(' ');
+            appendMillis(result, getDurationNanos());
+            if (detail != null) {
+                result.append(" (");
+                result.append(shorten(detail));
+                result.append(')');
+            }
+
+            if (children != null) {
+                result.append(" [");
+                for (int i = 0; i < children.size(); ++i) {
+                    if (i > 0) {
+                        result.append(", ");
+                    }
+
+                    children.get(i).append(result);
+                }
+
+                result.append(']');
+            }
+        }
+
+        private JsonObject toJson(long origin) {
+            JsonObject result = JsonObject.create();
+            result.put("name", name);
+            if (detail != null) {
+                result.put("detail", shorten(detail));
+            }
+
+            result.put("startMs", (start - origin) / 1e6);
+            result.put("durationMs", getDurationNanos() / 1e6);
+            if (children != null) {
+                JsonArray list = JsonArray.create();
+                for (Span child : children) {
+                    list.add(child.toJson(origin));
+                }
+
+                result.put("children", list);
+            }
+
+            return result;
+        }
+
+        private static void appendMillis(StringBuilder result, long nanos) {
+            result.append(nanos / 1000000);
+            result.append('.');
+            result.append(nanos / 100000 % 10);
+            result.append("ms");
+        }
+
+        private static String shorten(String detail) {
+            String result = detail.replaceAll("\\s+", " ");
+            if (result.length() > MAX_DETAIL_LENGTH) {
+                result = result.substring(0, MAX_DETAIL_LENGTH) + "...";
+            }
+
+            return result;
+        }
+    }
+}
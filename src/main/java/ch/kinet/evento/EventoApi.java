@@ -21,6 +21,7 @@ import ch.kinet.HttpConnection;
 import ch.kinet.HttpException;
 import ch.kinet.JsonArray;
 import ch.kinet.JsonObject;
+import ch.kinet.Trace;
 import org.json.JSONException;
 
 /**
@@ -60,6 +61,7 @@ public final class EventoApi {
     }
 
     public void connectClient() {
+        Trace.Span span = Trace.span("evento connect");
         try {
             HttpConnection http;
             http = httpClient.post(
@@ -82,10 +84,14 @@ public final class EventoApi {
         catch (HttpException ex) {
             throw new RuntimeException("Der Evento-Server antwortet mit einem Fehlercode: " + ex.getMessage() + ".");
         }
+        finally {
+            span.close();
+        }
     }
 
     public EventoSearchDefinition loadSearchDefinition(String context, String name) {
         String response = null;
+        Trace.Span span = Trace.span("evento search definition", context + "/" + name);
         try {
             HttpConnection http = httpClient.get(
                 PROTOCOL_HTTPS + config.getServer() + config.getApiBase() + "/search/definitions/" + context + "/" + name);
@@ -96,6 +102,9 @@ public final class EventoApi {
         catch (JSONException ex) {
             throw new RuntimeException("Der Evento-Server sendet ungültiges JSON: '" + response + "'.");
         }
+        finally {
+            span.close();
+        }
     }
 
     public JsonArray loadView(ViewDefinition viewDef) {
@@ -119,6 +128,7 @@ public final class EventoApi {
     }
 
     public void loginUser() {
+        Trace.Span span = Trace.span("evento login");
         try {
             HttpConnection http = httpClient.post(
                 PROTOCOL_HTTPS + config.getServer() + config.getOauthBase() + "/Authorization/LoginClient?client_token=" +
@@ -144,27 +154,49 @@ public final class EventoApi {
         catch (HttpException ex) {
             throw new RuntimeException("Der Evento-Server antwortet mit einem Fehlercode: " + ex.getMessage() + ".");
         }
+        finally {
+            span.close();
+        }
     }
 
     public String getPerson(int id) {
-        HttpConnection http = httpClient.get(
-            PROTOCOL_HTTPS + config.getServer() + config.getApiBase() + "/persons/" + id);
-        http.setHeader(AUTHORIZATION_HEADER, authorization());
-        return http.readResponse();
+        Trace.Span span = Trace.span("evento person");
+        try {
+            HttpConnection http = httpClient.get(
+                PROTOCOL_HTTPS + config.getServer() + config.getApiBase() + "/persons/" + id);
+            http.setHeader(AUTHORIZATION_HEADER, authorization());
+            return http.readResponse();
+        }
+        finally {
+            span.close();
+        }
     }
 
     private JsonArray search(String searchDefinition) {
-        HttpConnection http = httpClient.post(
-            PROTOCOL_HTTPS + config.getServer() + config.getApiBase() + "/Search/");
-        http.setHeader(AUTHORIZATION_HEADER, authorization());
-        http.setHeader("Content-Type", "application/json");
-        http.writeBody(searchDefinition);
-        String result = http.readResponse();
-        if (http.getResponseCode() >= 400) {
-            throw new RuntimeException("Der Evento-Server antwortet mit Fehler: " + http.getResponseCode() + ": " + http.getResponseMessage());
-        }
+        Trace.Span span = Trace.span("evento search");
+        try {
+            HttpConnection http = httpClient.post(
+                PROTOCOL_HTTPS + config.getServer() + config.getApiBase() + "/Search/");
+            http.setHeader(AUTHORIZATION_HEADER, authorization());
+            http.setHeader("Content-Type", "application/json");
+            http.writeBody(searchDefinition);
+            String result = http.readResponse();
+            if (http.getResponseCode() >= 400) {
+                throw new RuntimeException("Der Evento-Server antwortet mit Fehler: " + http.getResponseCode() + ": " +
+                                           http.getResponseMessage());
+            }
 
-        return JsonObject.create(result).getArray("Result");
+            Trace.Span parse = Trace.span("json parse");
+            try {
+                return JsonObject.create(result).getArray("Result");
+            }
+            finally {
+                parse.close();
+            }
+        }
+        finally {
+            span.close();
+        }
     }
 
     private String authorization() {
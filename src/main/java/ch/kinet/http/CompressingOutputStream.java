@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2026 by Sebastian Forster, Stefan Rothe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY); without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.kinet.http;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Compresses a response body while it is written. The first bytes are buffered until the minimum size is reached, so
+ * small responses are sent uncompressed. The Content-Encoding header is only set once compression starts.
+ */
+final class CompressingOutputStream extends OutputStream {
+
+    static final String DEFLATE = "deflate";
+    static final String GZIP = "gzip";
+    private static final int BUFFER_SIZE = 8192;
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+    private final String encoding;
+    private final HttpServerExchange exchange;
+    private final int minSize;
+    private ByteArrayOutputStream buffer;
+    private DeflaterOutputStream compressor;
+    private CountingOutputStream counter;
+    private long cpuNanos;
+    private CRC32 crc;
+    private Deflater deflater;
+    private long uncompressedBytes;
+
+    CompressingOutputStream(HttpServerExchange exchange, String encoding, int minSize) {
+        this.buffer = new ByteArrayOutputStream(minSize);
+        this.encoding = encoding;
+        this.exchange = exchange;
+        this.minSize = minSize;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        uncompressedBytes += len;
+        if (compressor != null) {
+            long start = cpuTime();
+            if (crc != null) {
+                crc.update(b, off, len);
+            }
+
+            compressor.write(b, off, len);
+            cpuNanos += cpuTime() - start;
+            return;
+        }
+
+        buffer.write(b, off, len);
+        if (buffer.size() >= minSize) {
+            startCompression();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (compressor != null) {
+            compressor.flush();
+        }
+    }
+
+    /**
+     * Releases the native memory of the compressor. Called after finishing, or instead of finishing if writing the
+     * body has failed.
+     */
+    void end() {
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+    }
+
+    /**
+     * Writes the remaining data and releases the compressor. Does not close the exchange's output stream.
+     *
+     * @throws IOException if writing fails
+     */
+    void finish() throws IOException {
+        if (compressor == null) {
+            buffer.writeTo(exchange.getOutputStream());
+            buffer = null;
+            return;
+        }
+
+        try {
+            long start = cpuTime();
+            compressor.finish();
+            if (crc != null) {
+                writeGzipTrailer();
+            }
+
+            cpuNanos += cpuTime() - start;
+        }
+        finally {
+            end();
+        }
+    }
+
+    long getCompressedBytes() {
+        return counter == null ? uncompressedBytes : counter.count;
+    }
+
+    long getCpuNanos() {
+        return cpuNanos;
+    }
+
+    String getEncoding() {
+        return encoding;
+    }
+
+    long getUncompressedBytes() {
+        return uncompressedBytes;
+    }
+
+    boolean isCompressed() {
+        return compressor != null;
+    }
+
+    private void startCompression() throws IOException {
+        exchange.getResponseHeaders().put(Headers.CONTENT_ENCODING, encoding);
+        exchange.getResponseHeaders().remove(Headers.CONTENT_LENGTH);
+        counter = new CountingOutputStream(exchange.getOutputStream());
+        long start = cpuTime();
+        // the deflater is created here, so its native memory is released by end() instead of the garbage collector
+        if (GZIP.equals(encoding)) {
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            crc = new CRC32();
+            crc.update(buffer.toByteArray());
+            counter.write(GZIP_HEADER, 0, GZIP_HEADER.length);
+        }
+        else {
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        }
+
+        compressor = new DeflaterOutputStream(counter, deflater, BUFFER_SIZE);
+        buffer.writeTo(compressor);
+        cpuNanos += cpuTime() - start;
+        buffer = null;
+    }
+
+    private void writeGzipTrailer() throws IOException {
+        writeIntLE((int) crc.getValue());
+        writeIntLE((int) uncompressedBytes);
+    }
+
+    private void writeIntLE(int value) throws IOException {
+        counter.write(value & 0xff);
+        counter.write((value >> 8) & 0xff);
+        counter.write((value >> 16) & 0xff);
+        counter.write((value >> 24) & 0xff);
+    }
+
+    private static long cpuTime() {
+        if (THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported()) {
+            return THREAD_MX_BEAN.getCurrentThreadCpuTime();
+        }
+        else {
+            return System.nanoTime();
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            ++count;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2026 by Sebastian Forster, Stefan Rothe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY); without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.kinet.http;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Metrics of a single endpoint at the time of the snapshot. Durations are given in nanoseconds.
+ */
+public final class EndpointSnapshot implements Comparable<EndpointSnapshot> {
+
+    private final String method;
+    private final Histogram.Snapshot[] phases;
+    private final String route;
+    private final Map<Integer, Long> statusCounts;
+
+    EndpointSnapshot(String method, String route, Histogram.Snapshot[] phases, long[] statusCounts) {
+        this.method = method;
+        this.phases = phases;
+        this.route = route;
+        Map<Integer, Long> counts = new TreeMap<>();
+        for (int i = 0; i < statusCounts.length; ++i) {
+            if (statusCounts[i] > 0) {
+                counts.put(i, statusCounts[i]);
+            }
+        }
+
+        this.statusCounts = Collections.unmodifiableMap(counts);
+    }
+
+    @Override
+    public int compareTo(EndpointSnapshot other) {
+        int result = route.compareTo(other.route);
+        return result == 0 ? method.compareTo(other.method) : result;
+    }
+
+    public long getCount() {
+        return phases[0].getCount();
+    }
+
+    public long getMaxNanos(ServerMetrics.Phase phase) {
+        return phases[phase.ordinal()].getMax();
+    }
+
+    public double getMeanNanos(ServerMetrics.Phase phase) {
+        return phases[phase.ordinal()].getMean();
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public long getPercentileNanos(ServerMetrics.Phase phase, double quantile) {
+        return phases[phase.ordinal()].getValueAtQuantile(quantile);
+    }
+
+    public String getRoute() {
+        return route;
+    }
+
+    public Map<Integer, Long> getStatusCounts() {
+        return statusCounts;
+    }
+
+    public long getSumNanos(ServerMetrics.Phase phase) {
+        return phases[phase.ordinal()].getSum();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        result.append(method);
+        result.append(' ');
+        result.append(route);
+        result.append(": ");
+        result.append(getCount());
+        result.append(" requests");
+        for (ServerMetrics.Phase phase : ServerMetrics.Phase.values()) {
+            result.append(", ");
+            result.append(phase);
+            result.append(" p99 ");
+            result.append(getPercentileNanos(phase, 0.99) / 1000);
+            result.append(" us");
+        }
+
+        return result.toString();
+    }
+}
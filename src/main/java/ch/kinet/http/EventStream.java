@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2026 by Sebastian Forster, Stefan Rothe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY); without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.kinet.http;
+
+import ch.kinet.Json;
+import ch.kinet.JsonObject;
+import ch.kinet.Log;
+import ch.kinet.Progress;
+import io.undertow.server.handlers.sse.ServerSentEventConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Stream of server-sent events. A handler returns Response.eventStream(stream) and keeps pushing events from another
+ * thread, e.g. the thread running a long operation. Events are written without blocking, no worker thread is held
+ * while the stream is open. Events sent before the client is connected are buffered.
+ * <p>
+ * Log entries are sent as "log" events, progress steps as "progress" events. Closing the stream sends an "end" event.
+ */
+public final class EventStream implements Progress {
+
+    private static final String EVENT_END = "end";
+    private static final String EVENT_LOG = "log";
+    private static final String EVENT_PROGRESS = "progress";
+    private static final String JSON_STEP = "step";
+    private static final String JSON_TOTAL = "total";
+    private static final long KEEP_ALIVE_MILLIS = 15000;
+    private final List<Log> attachedLogs = new ArrayList<>();
+    private boolean closed;
+    private ServerSentEventConnection connection;
+    private final Consumer<Log.Entry> logListener = this::log;
+    private long nextEventId;
+    private final List<String[]> pending = new ArrayList<>();
+    private int step;
+    private int total;
+
+    public static EventStream create() {
+        return new EventStream();
+    }
+
+    private EventStream() {
+    }
+
+    /**
+     * Sends all existing and future entries of the specified log to the client until the stream is closed.
+     *
+     * @param log the log
+     */
+    public void attach(Log log) {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+
+            attachedLogs.add(log);
+        }
+
+        log.addListener(logListener);
+    }
+
+    /**
+     * Sends the end event and closes the stream after all pending events have been written.
+     */
+    public void close() {
+        send(EVENT_END, JsonObject.create());
+        ServerSentEventConnection current;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+            current = connection;
+        }
+
+        if (current != null) {
+            current.shutdown();
+        }
+
+        detachLogs();
+    }
+
+    public synchronized boolean isOpen() {
+        return !closed;
+    }
+
+    public void log(Log.Entry entry) {
+        send(EVENT_LOG, entry);
+    }
+
+    public void send(String event, Json data) {
+        String text = data.toJsonTerse().toString();
+        ServerSentEventConnection current;
+        String id;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+
+            ++nextEventId;
+            id = String.valueOf(nextEventId);
+            if (connection == null) {
+                pending.add(new String[]{event, id, text});
+                return;
+            }
+
+            current = connection;
+        }
+
+        // queues the event without blocking, it is written by the IO thread
+        current.send(text, event, id, null);
+    }
+
+    public synchronized void setTotal(int total) {
+        this.total = total;
+    }
+
+    @Override
+    public void step() {
+        JsonObject data = JsonObject.create();
+        synchronized (this) {
+            ++step;
+            data.put(JSON_STEP, step);
+            data.put(JSON_TOTAL, total);
+        }
+
+        send(EVENT_PROGRESS, data);
+    }
+
+    void connected(ServerSentEventConnection connection) {
+        connection.setKeepAliveTime(KEEP_ALIVE_MILLIS);
+        connection.addCloseTask(closedConnection -> disconnected());
+        boolean shutdown;
+        synchronized (this) {
+            // flush the buffered events before later events can be sent
+            for (String[] event : pending) {
+                connection.send(event[2], event[0], event[1], null);
+            }
+
+            pending.clear();
+            this.connection = connection;
+            shutdown = closed;
+        }
+
+        if (shutdown) {
+            connection.shutdown();
+        }
+    }
+
+    private void detachLogs() {
+        List<Log> logs;
+        synchronized (this) {
+            logs = new ArrayList<>(attachedLogs);
+            attachedLogs.clear();
+        }
+
+        logs.forEach(log -> log.removeListener(logListener));
+    }
+
+    private void disconnected() {
+        synchronized (this) {
+            closed = true;
+            pending.clear();
+        }
+
+        detachLogs();
+    }
+}
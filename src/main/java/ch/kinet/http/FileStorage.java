@@ -17,90 +17,324 @@
 package ch.kinet.http;
 
 import ch.kinet.Data;
-import java.time.LocalDateTime;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.Map;
-import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
-public final class FileStorage {
+/**
+ * Temporary storage for files which are downloaded in a separate request. Files expire after their time to live.
+ * <p>
+ * Files are kept in memory as long as the memory budget allows. Larger files and files exceeding the budget are
+ * spilled to temporary files and read from disk when they are downloaded. Expiry is scheduled on a scheduler thread
+ * shared by all storages. A spilled file which expires while it is being downloaded is deleted when the last download
+ * has released it.
+ */
+public final class FileStorage implements AutoCloseable {
 
-    private final Map<String, FileInfo> storage = new HashMap<>();
-    private final Object lock = new Object();
+    private static final long DEFAULT_MEMORY_BUDGET = 64 * 1024 * 1024;
+    private static final long DEFAULT_TIME_TO_LIVE_SECONDS = 60;
+    private static final ScheduledThreadPoolExecutor scheduler = createScheduler();
+    private final LongAdder addedCount = new LongAdder();
+    private final AtomicLong diskBytes = new AtomicLong();
+    private final LongAdder expiredCount = new LongAdder();
+    private final long memoryBudget;
+    private final AtomicLong memoryBytes = new AtomicLong();
+    private final LongAdder spilledCount = new LongAdder();
+    private final Map<String, FileInfo> storage = new ConcurrentHashMap<>();
+    private final long timeToLiveSeconds;
 
     public static FileStorage create() {
-        FileStorage result = new FileStorage();
-        new Thread(new GarbageCollector(result)).start();
+        return create(DEFAULT_TIME_TO_LIVE_SECONDS, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Creates a file storage.
+     *
+     * @param timeToLiveSeconds default time to live of the files in seconds
+     * @param memoryBudget maximum number of bytes kept in memory, further files are stored on disk
+     * @return the file storage
+     */
+    public static FileStorage create(long timeToLiveSeconds, long memoryBudget) {
+        if (timeToLiveSeconds <= 0) {
+            throw new IllegalArgumentException("Parameter 'timeToLiveSeconds' must be positive.");
+        }
+
+        if (memoryBudget < 0) {
+            throw new IllegalArgumentException("Parameter 'memoryBudget' must not be negative.");
+        }
+
+        return new FileStorage(timeToLiveSeconds, memoryBudget);
+    }
+
+    private static ScheduledThreadPoolExecutor createScheduler() {
+        ScheduledThreadPoolExecutor result = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "FileStorage expiry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        result.setRemoveOnCancelPolicy(true);
         return result;
     }
 
-    private FileStorage() {
+    private FileStorage(long timeToLiveSeconds, long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        this.timeToLiveSeconds = timeToLiveSeconds;
     }
 
+    /**
+     * Returns a stored file. A spilled file is kept on disk until the returned data has been released, which the server
+     * does after writing the response.
+     *
+     * @param uuid key of the file
+     * @return the file or empty data if there is no such file
+     */
     public Data getFile(String uuid) {
-        synchronized (lock) {
-            FileInfo fileInfo = storage.get(uuid);
-            return fileInfo == null ? Data.empty() : fileInfo.file;
+        FileInfo fileInfo = storage.get(uuid);
+        if (fileInfo == null) {
+            return Data.empty();
+        }
+
+        if (fileInfo.temporaryFile == null) {
+            return fileInfo.file;
         }
+
+        if (!fileInfo.acquire()) {
+            // the file has expired in the meantime
+            return Data.empty();
+        }
+
+        Data file = fileInfo.file;
+        return Data.file(fileInfo.temporaryFile, file.fileName(), file.mimeType(), fileInfo::releaseReader);
     }
 
     public String addTemporaryFile(Data file) {
-        synchronized (lock) {
-            String key = UUID.randomUUID().toString();
-            FileInfo fileInfo = new FileInfo(file, LocalDateTime.now().plusMinutes(1));
-            storage.put(key, fileInfo);
-            return key;
+        return addTemporaryFile(file, timeToLiveSeconds);
+    }
+
+    public String addTemporaryFile(Data file, long timeToLiveSeconds) {
+        if (file == null) {
+            throw new NullPointerException("file");
         }
+
+        FileInfo fileInfo = store(file);
+        String key = UUID.randomUUID().toString();
+        storage.put(key, fileInfo);
+        fileInfo.expiry = scheduler.schedule(() -> expire(key, fileInfo), timeToLiveSeconds, TimeUnit.SECONDS);
+        addedCount.increment();
+        return key;
     }
 
-    public void collectGarbage() {
-        synchronized (lock) {
-            Set<String> removable = new HashSet<>();
-            LocalDateTime now = LocalDateTime.now();
-            removable.clear();
-            storage.keySet().forEach(key -> {
-                if (now.isAfter(storage.get(key).deleteAfter)) {
-                    removable.add(key);
+    /**
+     * Stops the expiry of the stored files and deletes them.
+     */
+    @Override
+    public void close() {
+        for (String key : storage.keySet()) {
+            FileInfo fileInfo = storage.remove(key);
+            if (fileInfo != null) {
+                if (fileInfo.expiry != null) {
+                    fileInfo.expiry.cancel(false);
                 }
-            });
 
-            removable.forEach(key -> {
-                storage.remove(key);
-            });
+                release(fileInfo);
+                // the server has been shut down, so remaining readers are abandoned
+                fileInfo.deleteTemporaryFile();
+            }
+        }
+    }
+
+    /**
+     * Removes files whose expiry has already run. Files normally expire on their own, this only sweeps entries left
+     * behind by a cancelled expiry.
+     */
+    public void collectGarbage() {
+        storage.forEach((key, fileInfo) -> {
+            if (fileInfo.expiry != null && fileInfo.expiry.isDone()) {
+                expire(key, fileInfo);
+            }
+        });
+    }
+
+    public long getAddedCount() {
+        return addedCount.sum();
+    }
+
+    public long getDiskBytes() {
+        return diskBytes.get();
+    }
+
+    public int getFileCount() {
+        return storage.size();
+    }
+
+    public long getExpiredCount() {
+        return expiredCount.sum();
+    }
+
+    public long getMemoryBytes() {
+        return memoryBytes.get();
+    }
+
+    public long getSpilledCount() {
+        return spilledCount.sum();
+    }
+
+    public boolean remove(String uuid) {
+        FileInfo fileInfo = storage.remove(uuid);
+        if (fileInfo == null) {
+            return false;
+        }
+
+        if (fileInfo.expiry != null) {
+            fileInfo.expiry.cancel(false);
+        }
+
+        release(fileInfo);
+        return true;
+    }
+
+    private void expire(String key, FileInfo fileInfo) {
+        if (storage.remove(key, fileInfo)) {
+            expiredCount.increment();
+            release(fileInfo);
+        }
+    }
+
+    private void release(FileInfo fileInfo) {
+        memoryBytes.addAndGet(-fileInfo.memoryBytes);
+        diskBytes.addAndGet(-fileInfo.diskBytes);
+        fileInfo.discard();
+    }
+
+    private FileInfo store(Data file) {
+        if (file.path() != null) {
+            // file backed data may be deleted by its owner, e.g. uploads at the end of the request
+            Path copy = createTemporaryFile();
+            try {
+                Files.copy(file.path(), copy, StandardCopyOption.REPLACE_EXISTING);
+                return spilled(file, copy);
+            }
+            catch (IOException ex) {
+                deleteQuietly(copy);
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        byte[] content = null;
+        if (!file.isStreamed()) {
+            // the content is serialized once and stored as bytes, so the accounted size is the size actually held
+            content = file.toBytes();
+            long used = memoryBytes.addAndGet(content.length);
+            if (used <= memoryBudget) {
+                return new FileInfo(Data.binary(content, file.fileName(), file.mimeType()), null, content.length, 0);
+            }
+
+            memoryBytes.addAndGet(-content.length);
+        }
+
+        // spill to disk, the content is written without materializing streamed data
+        Path path = createTemporaryFile();
+        try (OutputStream out = Files.newOutputStream(path)) {
+            if (content == null) {
+                file.writeTo(out);
+            }
+            else {
+                out.write(content);
+            }
+        }
+        catch (IOException ex) {
+            deleteQuietly(path);
+            throw new UncheckedIOException(ex);
+        }
+
+        return spilled(file, path);
+    }
+
+    private FileInfo spilled(Data file, Path path) throws UncheckedIOException {
+        try {
+            long size = Files.size(path);
+            diskBytes.addAndGet(size);
+            spilledCount.increment();
+            return new FileInfo(Data.file(path, file.fileName(), file.mimeType()), path, 0, size);
+        }
+        catch (IOException ex) {
+            deleteQuietly(path);
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static Path createTemporaryFile() {
+        try {
+            return Files.createTempFile("filestorage", null);
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        }
+        catch (IOException ex) {
+            path.toFile().deleteOnExit();
         }
     }
 
     private static final class FileInfo {
 
+        private final long diskBytes;
+        private volatile ScheduledFuture<?> expiry;
+        private boolean discarded;
         private final Data file;
-        private final LocalDateTime deleteAfter;
+        private final long memoryBytes;
+        private int readers;
+        private final Path temporaryFile;
 
-        FileInfo(Data file, LocalDateTime deleteAfter) {
+        FileInfo(Data file, Path temporaryFile, long memoryBytes, long diskBytes) {
+            this.diskBytes = diskBytes;
             this.file = file;
-            this.deleteAfter = deleteAfter;
+            this.memoryBytes = memoryBytes;
+            this.temporaryFile = temporaryFile;
         }
-    }
 
-    private static final class GarbageCollector implements Runnable {
+        synchronized boolean acquire() {
+            if (discarded) {
+                return false;
+            }
 
-        private final FileStorage storage;
+            ++readers;
+            return true;
+        }
 
-        private GarbageCollector(FileStorage storage) {
-            this.storage = storage;
+        synchronized void discard() {
+            discarded = true;
+            if (readers == 0) {
+                deleteTemporaryFile();
+            }
         }
 
-        @Override
-        public void run() {
-            while (true) {
-                try {
-                    Thread.sleep(60 * 1000);
-                }
-                catch (InterruptedException ex) {
-                    // ignore
-                }
+        synchronized void releaseReader() {
+            --readers;
+            if (discarded && readers == 0) {
+                deleteTemporaryFile();
+            }
+        }
 
-                storage.collectGarbage();
+        void deleteTemporaryFile() {
+            if (temporaryFile != null) {
+                deleteQuietly(temporaryFile);
             }
         }
     }
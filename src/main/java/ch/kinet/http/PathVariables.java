@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2026 by Sebastian Forster, Stefan Rothe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY); without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.kinet.http;
+
+/**
+ * Values of the path variables of a matched route. Variables declared as {name:int} or {name:long} have been
+ * validated while routing, so the typed getters do not fail for them.
+ */
+public final class PathVariables {
+
+    static final PathVariables EMPTY = new PathVariables(new String[0], new String[0]);
+    private final String[] names;
+    private final String[] values;
+
+    PathVariables(String[] names, String[] values) {
+        this.names = names;
+        this.values = values;
+    }
+
+    public int getInt(String name) {
+        return Integer.parseInt(getString(name));
+    }
+
+    public long getLong(String name) {
+        return Long.parseLong(getString(name));
+    }
+
+    public String getString(String name) {
+        for (int i = 0; i < names.length; ++i) {
+            if (names[i].equals(name)) {
+                return values[i];
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown path variable '" + name + "'.");
+    }
+
+    public boolean hasVariable(String name) {
+        for (int i = 0; i < names.length; ++i) {
+            if (names[i].equals(name)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < names.length; ++i) {
+            if (i > 0) {
+                result.append(", ");
+            }
+
+            result.append(names[i]);
+            result.append('=');
+            result.append(values[i]);
+        }
+
+        return result.toString();
+    }
+}
@@ -20,19 +20,45 @@ import ch.kinet.Dict;
 import ch.kinet.Json;
 import ch.kinet.JsonArray;
 import ch.kinet.JsonObject;
+import ch.kinet.Util;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * Query parameters of a request. The query is a view on the parameters parsed by the server, values are only parsed
+ * when they are accessed.
+ */
 public final class Query extends Dict implements Json {
 
-    private final Map<String, String[]> query;
+    private static final int INVALID = -1;
+    private final Map<String, Deque<String>> query;
 
     public static Query create(Map<String, String[]> query) {
-        return new Query(query);
+        Map<String, Deque<String>> parameters = new HashMap<>();
+        for (Map.Entry<String, String[]> entry : query.entrySet()) {
+            parameters.put(entry.getKey(), new ArrayDeque<>(Arrays.asList(entry.getValue())));
+        }
+
+        return new Query(parameters);
+    }
+
+    /**
+     * Creates a query backed by the specified parameters. The parameters are not copied.
+     *
+     * @param parameters query parameters of the exchange
+     * @return query
+     */
+    static Query wrap(Map<String, Deque<String>> parameters) {
+        return new Query(parameters);
     }
 
-    private Query(Map<String, String[]> query) {
+    private Query(Map<String, Deque<String>> query) {
         this.query = query;
     }
 
@@ -56,28 +82,95 @@ public final class Query extends Dict implements Json {
 
     @Override
     public double getDouble(String key, double defaultValue) {
-        final String[] values = query.get(key);
-        if (values == null || values.length == 0) {
+        final String value = first(key);
+        if (value == null) {
             return defaultValue;
         }
 
         try {
-            return Double.parseDouble(values[0]);
+            return Double.parseDouble(value);
         }
         catch (NumberFormatException ex) {
             return 0.0;
         }
     }
 
+    /**
+     * Returns the value of the specified key as enum constant. Returns the default value if the key is missing or the
+     * value is not the name of a constant.
+     *
+     * @param <E> enum type
+     * @param key key
+     * @param enumClass enum class
+     * @param defaultValue default value
+     * @return enum constant
+     */
+    public <E extends Enum<E>> E getEnum(String key, Class<E> enumClass, E defaultValue) {
+        final String value = first(key);
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            return Enum.valueOf(enumClass, value);
+        }
+        catch (IllegalArgumentException ex) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Returns all ids of the specified key. Ids may be passed as repeated parameters, as comma separated list or both,
+     * e.g. <code>id=1&amp;id=2,3</code>. Invalid ids are ignored. The values are parsed without creating intermediate
+     * objects.
+     *
+     * @param key key
+     * @return ids
+     */
+    public int[] getIds(String key) {
+        final Deque<String> values = query.get(key);
+        if (values == null || values.isEmpty()) {
+            return new int[0];
+        }
+
+        int count = 0;
+        for (final String value : values) {
+            count += countSeparated(value);
+        }
+
+        final int[] result = new int[count];
+        int pos = 0;
+        for (final String value : values) {
+            int start = 0;
+            final int length = value.length();
+            while (start <= length) {
+                int end = value.indexOf(',', start);
+                if (end < 0) {
+                    end = length;
+                }
+
+                final int id = parseId(value, start, end);
+                if (id != INVALID) {
+                    result[pos] = id;
+                    ++pos;
+                }
+
+                start = end + 1;
+            }
+        }
+
+        return pos == count ? result : Arrays.copyOf(result, pos);
+    }
+
     @Override
     public int getInt(String key, int defaultValue) {
-        final String[] values = query.get(key);
-        if (values == null || values.length == 0) {
+        final String value = first(key);
+        if (value == null) {
             return defaultValue;
         }
 
         try {
-            return Integer.parseInt(values[0]);
+            return Integer.parseInt(value);
         }
         catch (NumberFormatException ex) {
             return 0;
@@ -85,56 +178,84 @@ public final class Query extends Dict implements Json {
     }
 
     public int[] getInts(String key) {
-        final String[] values = query.get(key);
-        if (values == null || values.length == 0) {
+        final Deque<String> values = query.get(key);
+        if (values == null || values.isEmpty()) {
             return new int[0];
         }
 
-        final List<Integer> ints = new ArrayList<>();
+        final int[] result = new int[values.size()];
+        int pos = 0;
         for (final String value : values) {
             try {
-                ints.add(Integer.parseInt(value));
+                result[pos] = Integer.parseInt(value);
+                ++pos;
             }
             catch (NumberFormatException ex) {
                 // ignore
             }
         }
 
-        final int[] result = new int[ints.size()];
-        for (int i = 0; i < result.length; ++i) {
-            result[i] = ints.get(i);
-        }
+        return pos == result.length ? result : Arrays.copyOf(result, pos);
+    }
 
-        return result;
+    public long getLong(String key) {
+        return getLong(key, 0L);
     }
 
-    @Override
-    public String getString(String key, String defaultValue) {
-        String[] values = query.get(key);
-        if (values == null || values.length == 0) {
+    public long getLong(String key, long defaultValue) {
+        final String value = first(key);
+        if (value == null) {
             return defaultValue;
         }
 
-        return values[0];
+        try {
+            return Long.parseLong(value);
+        }
+        catch (NumberFormatException ex) {
+            return 0L;
+        }
+    }
+
+    public long[] getLongs(String key) {
+        final Deque<String> values = query.get(key);
+        if (values == null || values.isEmpty()) {
+            return new long[0];
+        }
+
+        final long[] result = new long[values.size()];
+        int pos = 0;
+        for (final String value : values) {
+            try {
+                result[pos] = Long.parseLong(value);
+                ++pos;
+            }
+            catch (NumberFormatException ex) {
+                // ignore
+            }
+        }
+
+        return pos == result.length ? result : Arrays.copyOf(result, pos);
+    }
+
+    @Override
+    public String getString(String key, String defaultValue) {
+        final String value = first(key);
+        return value == null ? defaultValue : value;
     }
 
     public String[] getStrings(String key) {
-        String[] values = query.get(key);
-        if (values == null || values.length == 0) {
+        final Deque<String> values = query.get(key);
+        if (values == null || values.isEmpty()) {
             return new String[0];
         }
 
-        return values;
+        return values.toArray(new String[values.size()]);
     }
 
     @Override
     public boolean hasKey(String key) {
-        String[] values = query.get(key);
-        if (values == null || values.length == 0) {
-            return false;
-        }
-
-        return true;
+        final Deque<String> values = query.get(key);
+        return values != null && !values.isEmpty();
     }
 
     @Override
@@ -145,7 +266,7 @@ public final class Query extends Dict implements Json {
     @Override
     public JsonObject toJsonTerse() {
         final JsonObject result = JsonObject.create();
-        for (Map.Entry<String, String[]> entry : query.entrySet()) {
+        for (Map.Entry<String, Deque<String>> entry : query.entrySet()) {
             final JsonArray list = JsonArray.create();
             for (String string : entry.getValue()) {
                 list.add(string);
@@ -162,10 +283,39 @@ public final class Query extends Dict implements Json {
         return toJsonTerse();
     }
 
+    /**
+     * Returns the query with the keys in sorted order, so equivalent queries have the same representation. Keys and
+     * values are URL encoded, so separators contained in them cannot be confused with the ones between the pairs.
+     *
+     * @return normalized query string
+     */
+    String toNormalizedString() {
+        if (query.isEmpty()) {
+            return "";
+        }
+
+        List<String> keys = new ArrayList<>(query.keySet());
+        Collections.sort(keys);
+        final StringBuilder result = new StringBuilder();
+        for (String key : keys) {
+            for (String value : query.get(key)) {
+                if (result.length() > 0) {
+                    result.append('&');
+                }
+
+                result.append(Util.urlEncode(key));
+                result.append('=');
+                result.append(Util.urlEncode(value));
+            }
+        }
+
+        return result.toString();
+    }
+
     @Override
     public String toString() {
         final StringBuilder result = new StringBuilder();
-        for (Map.Entry<String, String[]> entry : query.entrySet()) {
+        for (Map.Entry<String, Deque<String>> entry : query.entrySet()) {
             for (String string : entry.getValue()) {
                 if (result.length() > 0) {
                     result.append("&");
@@ -179,4 +329,46 @@ public final class Query extends Dict implements Json {
 
         return result.toString();
     }
+
+    private String first(String key) {
+        final Deque<String> values = query.get(key);
+        return values == null ? null : values.peekFirst();
+    }
+
+    private static int countSeparated(String value) {
+        int result = 1;
+        for (int i = 0; i < value.length(); ++i) {
+            if (value.charAt(i) == ',') {
+                ++result;
+            }
+        }
+
+        return result;
+    }
+
+    private static int parseId(String value, int start, int end) {
+        while (start < end && value.charAt(start) == ' ') {
+            ++start;
+        }
+
+        while (end > start && value.charAt(end - 1) == ' ') {
+            --end;
+        }
+
+        if (start == end || end - start > 10) {
+            return INVALID;
+        }
+
+        long result = 0;
+        for (int i = start; i < end; ++i) {
+            final char ch = value.charAt(i);
+            if (ch < '0' || ch > '9') {
+                return INVALID;
+            }
+
+            result = result * 10 + (ch - '0');
+        }
+
+        return result > Integer.MAX_VALUE ? INVALID : (int) result;
+    }
 }
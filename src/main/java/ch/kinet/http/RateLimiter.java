@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2026 by Sebastian Forster, Stefan Rothe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY); without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.kinet.http;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Token bucket rate limiter implemented with the generic cell rate algorithm. Each key is mapped to one of a fixed
+ * number of stripes, each stripe stores its theoretical arrival time in a single atomic long. Acquiring a permit is a
+ * single compare and set without locks or allocations. Keys with colliding hashes share a bucket.
+ */
+final class RateLimiter {
+
+    private final long intervalNanos;
+    private final int mask;
+    private final long origin = System.nanoTime();
+    private final AtomicLongArray stripes;
+    private final long toleranceNanos;
+
+    RateLimiter(double permitsPerSecond, int burst, int stripeCount) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("Parameter 'permitsPerSecond' must be positive.");
+        }
+
+        if (burst <= 0) {
+            throw new IllegalArgumentException("Parameter 'burst' must be positive.");
+        }
+
+        int size = Integer.highestOneBit(Math.max(1, stripeCount - 1)) << 1;
+        this.intervalNanos = Math.max(1, (long) (1e9 / permitsPerSecond));
+        this.mask = size - 1;
+        this.stripes = new AtomicLongArray(size);
+        this.toleranceNanos = intervalNanos * burst;
+    }
+
+    /**
+     * Tries to acquire a permit for the specified key.
+     *
+     * @param key the key, e.g. the principal or the client address
+     * @return 0 if the permit has been granted, otherwise the time in nanoseconds until a permit becomes available
+     */
+    long tryAcquire(Object key) {
+        int index = index(key);
+        while (true) {
+            long now = System.nanoTime() - origin;
+            long arrival = stripes.get(index);
+            long next = Math.max(arrival, now) + intervalNanos;
+            long wait = next - now - toleranceNanos;
+            if (wait > 0) {
+                return wait;
+            }
+
+            if (stripes.compareAndSet(index, arrival, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Returns the time until a permit becomes available for the specified key without acquiring it.
+     *
+     * @param key the key, e.g. the client address
+     * @return 0 if a permit is available, otherwise the time in nanoseconds until a permit becomes available
+     */
+    long waitNanos(Object key) {
+        long now = System.nanoTime() - origin;
+        long next = Math.max(stripes.get(index(key)), now) + intervalNanos;
+        return Math.max(0, next - now - toleranceNanos);
+    }
+
+    private int index(Object key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
@@ -17,6 +17,7 @@
 package ch.kinet.http;
 
 import ch.kinet.Data;
+import ch.kinet.Trace;
 
 public final class Request<T> {
 
@@ -29,6 +30,8 @@ public final class Request<T> {
     private final Method method;
     private final String path;
     private final Query query;
+    private String route;
+    private Trace trace;
 
     public static <T> Request<T> createDelete(T authorisation, String path, Query query) {
         return new Request(Request.Method.Delete, authorisation, path, query, null);
@@ -74,6 +77,33 @@ public final class Request<T> {
         return query;
     }
 
+    /**
+     * Returns the template of the Router route which handles this request or null if the request has not been routed.
+     *
+     * @return route template or null
+     */
+    public final String getRoute() {
+        return route;
+    }
+
+    /**
+     * Returns the trace of this request. Handlers continuing the request on another thread can bind the trace to that
+     * thread with {@link Trace#activate()}. Requests are only traced if the server reports traces.
+     *
+     * @return trace or null if the request is not traced
+     */
+    public final Trace getTrace() {
+        return trace;
+    }
+
+    void setRoute(String route) {
+        this.route = route;
+    }
+
+    void setTrace(Trace trace) {
+        this.trace = trace;
+    }
+
     @Override
     public String toString() {
         final StringBuilder result = new StringBuilder();
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2026 by Sebastian Forster, Stefan Rothe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY); without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.kinet.http;
+
+import ch.kinet.Trace;
+import io.undertow.util.AttachmentKey;
+
+/**
+ * Measures the phases of a single request. Attached to the exchange while the request is processed.
+ */
+final class RequestTiming {
+
+    static final AttachmentKey<RequestTiming> KEY = AttachmentKey.create(RequestTiming.class);
+    private long last;
+    private final long[] phaseNanos = new long[ServerMetrics.Phase.values().length];
+    private Request<?> request;
+    private Trace trace;
+
+    RequestTiming() {
+        this.last = System.nanoTime();
+    }
+
+    /**
+     * Ends the specified phase. The phase started when the previous phase ended.
+     *
+     * @param phase the phase that ended
+     */
+    void mark(ServerMetrics.Phase phase) {
+        long now = System.nanoTime();
+        phaseNanos[phase.ordinal()] += now - last;
+        last = now;
+    }
+
+    long[] getPhaseNanos() {
+        return phaseNanos;
+    }
+
+    Trace getTrace() {
+        return trace;
+    }
+
+    String getRoute() {
+        return request == null ? null : request.getRoute();
+    }
+
+    void setRequest(Request<?> request) {
+        this.request = request;
+    }
+
+    void setTrace(Trace trace) {
+        this.trace = trace;
+    }
+}
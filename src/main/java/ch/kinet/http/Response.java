@@ -21,6 +21,11 @@ import ch.kinet.ICalendar;
 import ch.kinet.Json;
 import ch.kinet.JsonArray;
 import ch.kinet.JsonObject;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 
 public class Response {
@@ -32,6 +37,11 @@ public class Response {
     };
     private final int status;
     private final Data body;
+    private final int cacheSeconds;
+    private final String eTag;
+    private final EventStream eventStream;
+    private final Map<String, String> headers;
+    private final Supplier<Response> producer;
 
     public static Response badRequest() {
         return new Response(Status.BAD_REQUEST);
@@ -65,10 +75,44 @@ public class Response {
         return new Response(Status.CREATED, Data.json(root));
     }
 
+    /**
+     * Creates a response which keeps the connection open and sends the events of the specified stream to the client
+     * as server-sent events.
+     *
+     * @param stream the event stream
+     * @return response
+     */
+    public static Response eventStream(EventStream stream) {
+        if (stream == null) {
+            throw new NullPointerException("stream");
+        }
+
+        return new Response(stream);
+    }
+
     public static Response file(Data data) {
         return new Response(Status.OK, data);
     }
 
+    /**
+     * Creates a response sending the specified file. The file is transferred directly from disk to the connection
+     * and range requests are supported.
+     *
+     * @param path path to the file
+     * @return response
+     */
+    public static Response file(Path path) {
+        if (path == null) {
+            throw new NullPointerException("path");
+        }
+
+        return file(path, path.getFileName().toString());
+    }
+
+    public static Response file(Path path, String fileName) {
+        return new Response(Status.OK, Data.file(path, fileName));
+    }
+
     public static Response forbidden() {
         return new Response(Status.FORBIDDEN);
     }
@@ -115,6 +159,30 @@ public class Response {
         return jsonArray(stream.map(Json::toJsonVerbose));
     }
 
+    /**
+     * Creates a response with a JSON array which is serialized while the response is written, so only one element is
+     * held in memory at a time. The stream must remain valid until the response has been sent and is closed afterwards.
+     * <p>
+     * The elements are produced after the handler has returned. Exceptions thrown by the stream or while converting
+     * elements to JSON are reported to {@link ServerImplementation#handleException(Throwable)}. If the status 200 has
+     * already been sent, the connection is closed and the client receives an incomplete body. Use
+     * {@link #jsonArray(Stream)} if such errors must be answered with a proper status.
+     *
+     * @param stream stream of array elements
+     * @return response
+     */
+    public static Response jsonArrayStreamed(Stream<JsonObject> stream) {
+        return new Response(Status.OK, Data.jsonStream(JSON_RESULT, stream));
+    }
+
+    public static Response jsonArrayStreamedTerse(Stream<? extends Json> stream) {
+        return jsonArrayStreamed(stream.map(Json::toJsonTerse));
+    }
+
+    public static Response jsonArrayStreamedVerbose(Stream<? extends Json> stream) {
+        return jsonArrayStreamed(stream.map(Json::toJsonVerbose));
+    }
+
     public static Response jsonTerse(Json result) {
         if (result == null) {
             return notFound();
@@ -143,6 +211,14 @@ public class Response {
         return new Response(Status.NOT_FOUND);
     }
 
+    static Response cached(int status, Data body, String eTag, Map<String, String> headers) {
+        return new Response(status, body, eTag, headers, null, 0);
+    }
+
+    static Response notModified(String eTag) {
+        return new Response(Status.NOT_MODIFIED, Data.empty(), eTag, null);
+    }
+
     public static Response noContent() {
         return new Response(Status.NO_CONTENT);
     }
@@ -151,6 +227,15 @@ public class Response {
         return new Response(Status.OK);
     }
 
+    public static Response payloadTooLarge() {
+        return new Response(Status.PAYLOAD_TOO_LARGE);
+    }
+
+    public static Response tooManyRequests(long retryAfterSeconds) {
+        return new Response(Status.TOO_MANY_REQUESTS).withHeader("Retry-After",
+                                                                 String.valueOf(Math.max(1, retryAfterSeconds)));
+    }
+
     public static Response unauthorized() {
         return new Response(Status.UNAUTHORIZED);
     }
@@ -163,20 +248,149 @@ public class Response {
         return new Response(Status.UNSUPPORTED_MEDIA_TYPE);
     }
 
+    /**
+     * Creates a response for an entity with a known version. If the client of a GET request already has this version,
+     * the server answers with 304 Not Modified and the producer is never called. For other methods the producer is
+     * always called.
+     *
+     * @param version the entity version, e.g. a revision number or a modification timestamp
+     * @param producer creates the response if the client does not have the current version
+     * @return response
+     */
+    public static Response versioned(String version, Supplier<Response> producer) {
+        if (producer == null) {
+            throw new NullPointerException("producer");
+        }
+
+        return new Response(Status.OK, Data.empty(), formatETag(version), producer);
+    }
+
+    static String formatETag(String version) {
+        if (version == null) {
+            throw new NullPointerException("version");
+        }
+
+        return "W/\"" + version.replace("\"", "") + "\"";
+    }
+
     private Response(int status) {
         this(status, Data.empty());
     }
 
     private Response(int status, Data body) {
+        this(status, body, null, null);
+    }
+
+    private Response(int status, Data body, String eTag, Supplier<Response> producer) {
+        this(status, body, eTag, Collections.emptyMap(), producer, 0);
+    }
+
+    private Response(int status, Data body, String eTag, Map<String, String> headers, Supplier<Response> producer,
+                     int cacheSeconds) {
         this.body = body;
+        this.cacheSeconds = cacheSeconds;
+        this.eTag = eTag;
+        this.eventStream = null;
+        this.headers = headers;
+        this.producer = producer;
         this.status = status;
     }
 
+    private Response(EventStream eventStream) {
+        this.body = Data.empty();
+        this.cacheSeconds = 0;
+        this.eTag = null;
+        this.eventStream = eventStream;
+        this.headers = Collections.emptyMap();
+        this.producer = null;
+        this.status = Status.OK;
+    }
+
     public Data getBody() {
         return body;
     }
 
+    public int getCacheSeconds() {
+        return cacheSeconds;
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+
+    public EventStream getEventStream() {
+        return eventStream;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
     public int getStatus() {
         return status;
     }
+
+    /**
+     * Returns a copy of this response which may be stored in the server's response cache for the specified time. The
+     * response is shared by all requests with the same path, query and cache partition.
+     *
+     * @param seconds time to live in seconds
+     * @return cacheable response
+     */
+    public Response cacheFor(int seconds) {
+        if (seconds < 0) {
+            throw new IllegalArgumentException("Parameter 'seconds' must not be negative.");
+        }
+
+        return new Response(status, body, eTag, headers, producer, seconds);
+    }
+
+    /**
+     * Returns a copy of this response with an ETag derived from the specified entity version.
+     * <p>
+     * Responses to GET requests without an explicit ETag get one computed from a checksum of the body. This is skipped
+     * for streamed and file backed bodies, which would otherwise have to be read completely in advance. Such responses
+     * only support conditional requests if an ETag is set with this method. A matching If-None-Match header only turns
+     * responses with status 200 into 304 Not Modified, error responses are sent unchanged.
+     *
+     * @param version the entity version
+     * @return response with ETag
+     */
+    public Response withETag(String version) {
+        return new Response(status, body, formatETag(version), headers, producer, cacheSeconds);
+    }
+
+    /**
+     * Returns a copy of this response with an additional header.
+     *
+     * @param name the header name
+     * @param value the header value
+     * @return response with header
+     */
+    public Response withHeader(String name, String value) {
+        if (name == null) {
+            throw new NullPointerException("name");
+        }
+
+        Map<String, String> newHeaders = new LinkedHashMap<>(headers);
+        newHeaders.put(name, value);
+        return new Response(status, body, eTag, Collections.unmodifiableMap(newHeaders), producer, cacheSeconds);
+    }
+
+    Response resolve() {
+        if (producer == null) {
+            return this;
+        }
+
+        Response result = producer.get();
+        if (result == null) {
+            return notFound();
+        }
+
+        return new Response(result.status, result.body, eTag, result.headers, null, result.cacheSeconds);
+    }
+
+    Response withBody(Data body, String eTag) {
+        return new Response(status, body, eTag, headers, null, cacheSeconds);
+    }
 }
@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2026 by Sebastian Forster, Stefan Rothe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY); without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.kinet.http;
+
+import ch.kinet.Data;
+import io.undertow.util.AttachmentKey;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Server side cache of serialized GET responses. Handlers opt in by returning a response created with
+ * Response.cacheFor. Entries are keyed by the cache partition of the authorisation, the path and the query. On a hit,
+ * the handler is not called at all.
+ * <p>
+ * The cache is bounded by the total size of the cached bytes, the least recently used entries are evicted first.
+ */
+public final class ResponseCache {
+
+    static final AttachmentKey<byte[]> GZIP_BODY = AttachmentKey.create(byte[].class);
+    private static final int ENTRY_OVERHEAD = 128;
+    private final Map<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final LongAdder hitCount = new LongAdder();
+    private final long maxBytes;
+    private final LongAdder missCount = new LongAdder();
+    private long sizeBytes;
+
+    public static ResponseCache create(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Parameter 'maxBytes' must be positive.");
+        }
+
+        return new ResponseCache(maxBytes);
+    }
+
+    private ResponseCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public long getSizeBytes() {
+        synchronized (entries) {
+            return sizeBytes;
+        }
+    }
+
+    /**
+     * Removes all cached responses for the specified path, regardless of query and partition.
+     *
+     * @param path the request path
+     */
+    public void invalidate(String path) {
+        synchronized (entries) {
+            removeIf(key -> key.path.equals(path));
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+            sizeBytes = 0;
+        }
+    }
+
+    /**
+     * Removes all cached responses for paths starting with the specified prefix.
+     *
+     * @param prefix the path prefix
+     */
+    public void invalidatePrefix(String prefix) {
+        synchronized (entries) {
+            removeIf(key -> key.path.startsWith(prefix));
+        }
+    }
+
+    Entry get(Object partition, String path, Query query) {
+        Key key = new Key(partition, path, query);
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expiresAt <= now) {
+                remove(key);
+                entry = null;
+            }
+
+            if (entry == null) {
+                missCount.increment();
+            }
+            else {
+                hitCount.increment();
+            }
+
+            return entry;
+        }
+    }
+
+    Entry put(Object partition, Request<?> request, Response response, byte[] content, boolean compress) {
+        byte[] gzipContent = compress ? gzip(content) : null;
+        Entry entry = new Entry(response, content, gzipContent, request.getRoute(),
+                                System.currentTimeMillis() + response.getCacheSeconds() * 1000L);
+        Key key = new Key(partition, request.getPath(), request.getQuery());
+        if (entry.size(key) > maxBytes) {
+            return entry;
+        }
+
+        synchronized (entries) {
+            remove(key);
+            entries.put(key, entry);
+            sizeBytes += entry.size(key);
+            Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+            while (sizeBytes > maxBytes && it.hasNext()) {
+                Map.Entry<Key, Entry> eldest = it.next();
+                sizeBytes -= eldest.getValue().size(eldest.getKey());
+                it.remove();
+            }
+        }
+
+        return entry;
+    }
+
+    private void remove(Key key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            sizeBytes -= entry.size(key);
+        }
+    }
+
+    private void removeIf(Predicate<Key> predicate) {
+        Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, Entry> entry = it.next();
+            if (predicate.test(entry.getKey())) {
+                sizeBytes -= entry.getValue().size(entry.getKey());
+                it.remove();
+            }
+        }
+    }
+
+    private static byte[] gzip(byte[] content) {
+        ByteArrayOutputStream result = new ByteArrayOutputStream(content.length / 4 + 64);
+        try (GZIPOutputStream out = new GZIPOutputStream(result)) {
+            out.write(content);
+        }
+        catch (IOException ex) {
+            // cannot happen when writing to memory
+            return null;
+        }
+
+        return result.toByteArray();
+    }
+
+    static final class Entry {
+
+        private final byte[] content;
+        private final String eTag;
+        private final long expiresAt;
+        private final String fileName;
+        private final byte[] gzipContent;
+        private final Map<String, String> headers;
+        private final String mimeType;
+        private final String route;
+        private final int status;
+
+        private Entry(Response response, byte[] content, byte[] gzipContent, String route, long expiresAt) {
+            this.content = content;
+            this.eTag = response.getETag();
+            this.expiresAt = expiresAt;
+            this.fileName = response.getBody().fileName();
+            this.gzipContent = gzipContent;
+            this.headers = response.getHeaders();
+            this.mimeType = response.getBody().mimeType();
+            this.route = route;
+            this.status = response.getStatus();
+        }
+
+        byte[] getGzipContent() {
+            return gzipContent;
+        }
+
+        String getRoute() {
+            return route;
+        }
+
+        Response toResponse() {
+            return Response.cached(status, Data.binary(content, fileName, mimeType), eTag, headers);
+        }
+
+        private long size(Key key) {
+            long result = ENTRY_OVERHEAD + content.length + 2L * (key.path.length() + key.query.length());
+            return gzipContent == null ? result : result + gzipContent.length;
+        }
+    }
+
+    private static final class Key {
+
+        private final int hashCode;
+        private final Object partition;
+        private final String path;
+        private final String query;
+
+        Key(Object partition, String path, Query query) {
+            this.partition = partition;
+            this.path = path;
+            this.query = query == null ? "" : query.toNormalizedString();
+            this.hashCode = Objects.hash(partition, path, this.query);
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (this == object) {
+                return true;
+            }
+
+            if (!(object instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key) object;
+            return hashCode == other.hashCode && partition.equals(other.partition) && path.equals(other.path) &&
+                query.equals(other.query);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
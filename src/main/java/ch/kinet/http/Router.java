@@ -0,0 +1,381 @@
+/*
+ * Copyright (C) 2026 by Sebastian Forster, Stefan Rothe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY); without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.kinet.http;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Dispatches requests to handlers by method and path template. Templates consist of literal segments and variables,
+ * e.g. /api/students/{id:int}/grades. Variables may be declared as {name}, {name:int} or {name:long}. Literal
+ * segments take precedence over variables.
+ * <p>
+ * Routes are stored in a trie with one level per path segment. All routes must be added before the first request is
+ * routed, routing itself is thread safe.
+ */
+public final class Router<T> {
+
+    private static final long CONCURRENCY_RETRY_AFTER_SECONDS = 1;
+    private static final VariableType[] VARIABLE_TYPES = VariableType.values();
+    private final Node<T> root = new Node<>();
+    private int maxVariables;
+
+    public static <T> Router<T> create() {
+        return new Router<>();
+    }
+
+    private Router() {
+    }
+
+    public Router<T> add(Request.Method method, String template, RouteHandler<T> handler) {
+        return add(method, template, handler, 0);
+    }
+
+    /**
+     * Adds a route which handles at most the specified number of requests at the same time. Further requests are
+     * answered with 429 Too Many Requests.
+     *
+     * @param method the request method
+     * @param template the path template
+     * @param handler the handler
+     * @param maxConcurrentRequests maximum number of concurrent requests, zero means no limit
+     * @return this router
+     */
+    public Router<T> add(Request.Method method, String template, RouteHandler<T> handler, int maxConcurrentRequests) {
+        if (method == null) {
+            throw new NullPointerException("method");
+        }
+
+        if (template == null) {
+            throw new NullPointerException("template");
+        }
+
+        if (handler == null) {
+            throw new NullPointerException("handler");
+        }
+
+        if (maxConcurrentRequests < 0) {
+            throw new IllegalArgumentException("Parameter 'maxConcurrentRequests' must not be negative.");
+        }
+
+        Node<T> node = root;
+        List<String> variableNames = new ArrayList<>();
+        for (String segment : template.split("/")) {
+            if (segment.isEmpty()) {
+                continue;
+            }
+
+            if (segment.startsWith("{") && segment.endsWith("}")) {
+                String name = segment.substring(1, segment.length() - 1);
+                VariableType type = VariableType.Text;
+                int pos = name.indexOf(':');
+                if (pos >= 0) {
+                    type = VariableType.parse(name.substring(pos + 1), template);
+                    name = name.substring(0, pos);
+                }
+
+                if (name.isEmpty() || variableNames.contains(name)) {
+                    throw new IllegalArgumentException("Invalid path variable in template '" + template + "'.");
+                }
+
+                variableNames.add(name);
+                node = node.variableChild(type);
+            }
+            else {
+                node = node.literalChild(segment);
+            }
+        }
+
+        if (node.routes.containsKey(method)) {
+            throw new IllegalArgumentException("Route " + method + " " + template + " is already defined.");
+        }
+
+        node.routes.put(method, new Route<>(handler, template, variableNames.toArray(new String[0]),
+                                             maxConcurrentRequests));
+        maxVariables = Math.max(maxVariables, variableNames.size());
+        return this;
+    }
+
+    public Router<T> delete(String template, RouteHandler<T> handler) {
+        return add(Request.Method.Delete, template, handler);
+    }
+
+    public Router<T> get(String template, RouteHandler<T> handler) {
+        return add(Request.Method.Get, template, handler);
+    }
+
+    public Router<T> patch(String template, RouteHandler<T> handler) {
+        return add(Request.Method.Patch, template, handler);
+    }
+
+    public Router<T> post(String template, RouteHandler<T> handler) {
+        return add(Request.Method.Post, template, handler);
+    }
+
+    public Router<T> put(String template, RouteHandler<T> handler) {
+        return add(Request.Method.Put, template, handler);
+    }
+
+    /**
+     * Calls the handler of the route matching the request. Returns 404 Not Found if no template matches the path and
+     * 405 Method Not Allowed if the path matches, but not the method.
+     *
+     * @param request the request
+     * @return the response of the handler
+     */
+    public Response route(Request<T> request) {
+        String path = request.getPath();
+        int[] bounds = maxVariables == 0 ? null : new int[2 * maxVariables];
+        Node<T> node = find(root, path, 0, bounds, 0);
+        if (node == null) {
+            return Response.notFound();
+        }
+
+        Route<T> route = node.routes.get(request.getMethod());
+        if (route == null) {
+            return Response.methodNotAllowed();
+        }
+
+        request.setRoute(route.template);
+        if (route.maxConcurrentRequests == 0) {
+            return route.handler.handle(request, route.variables(path, bounds));
+        }
+
+        if (route.active.incrementAndGet() > route.maxConcurrentRequests) {
+            route.active.decrementAndGet();
+            return Response.tooManyRequests(CONCURRENCY_RETRY_AFTER_SECONDS);
+        }
+
+        try {
+            return route.handler.handle(request, route.variables(path, bounds));
+        }
+        finally {
+            route.active.decrementAndGet();
+        }
+    }
+
+    private Node<T> find(Node<T> node, String path, int pos, int[] bounds, int variableCount) {
+        while (pos < path.length() && path.charAt(pos) == '/') {
+            ++pos;
+        }
+
+        if (pos == path.length()) {
+            return node.routes.isEmpty() ? null : node;
+        }
+
+        int end = path.indexOf('/', pos);
+        if (end < 0) {
+            end = path.length();
+        }
+
+        Node<T> child = node.findLiteralChild(path, pos, end);
+        if (child != null) {
+            Node<T> result = find(child, path, end, bounds, variableCount);
+            if (result != null) {
+                return result;
+            }
+        }
+
+        for (VariableType type : VARIABLE_TYPES) {
+            child = node.variableChildren[type.ordinal()];
+            if (child != null && type.matches(path, pos, end)) {
+                bounds[2 * variableCount] = pos;
+                bounds[2 * variableCount + 1] = end;
+                Node<T> result = find(child, path, end, bounds, variableCount + 1);
+                if (result != null) {
+                    return result;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private static int compare(String literal, String path, int start, int end) {
+        int length = end - start;
+        int n = Math.min(literal.length(), length);
+        for (int i = 0; i < n; ++i) {
+            int result = literal.charAt(i) - path.charAt(start + i);
+            if (result != 0) {
+                return result;
+            }
+        }
+
+        return literal.length() - length;
+    }
+
+    private static final class Node<T> {
+
+        private String[] literals = new String[0];
+        private Node<T>[] literalChildren = newArray(0);
+        private final Map<Request.Method, Route<T>> routes = new EnumMap<>(Request.Method.class);
+        private final Node<T>[] variableChildren = newArray(VARIABLE_TYPES.length);
+
+        Node<T> findLiteralChild(String path, int start, int end) {
+            // binary search over the sorted literals without creating a substring
+            int low = 0;
+            int high = literals.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = compare(literals[mid], path, start, end);
+                if (cmp < 0) {
+                    low = mid + 1;
+                }
+                else if (cmp > 0) {
+                    high = mid - 1;
+                }
+                else {
+                    return literalChildren[mid];
+                }
+            }
+
+            return null;
+        }
+
+        Node<T> literalChild(String literal) {
+            int index = Arrays.binarySearch(literals, literal);
+            if (index >= 0) {
+                return literalChildren[index];
+            }
+
+            index = -index - 1;
+            Node<T> result = new Node<>();
+            String[] newLiterals = new String[literals.length + 1];
+            Node<T>[] newChildren = newArray(literals.length + 1);
+            System.arraycopy(literals, 0, newLiterals, 0, index);
+            System.arraycopy(literalChildren, 0, newChildren, 0, index);
+            newLiterals[index] = literal;
+            newChildren[index] = result;
+            System.arraycopy(literals, index, newLiterals, index + 1, literals.length - index);
+            System.arraycopy(literalChildren, index, newChildren, index + 1, literals.length - index);
+            literals = newLiterals;
+            literalChildren = newChildren;
+            return result;
+        }
+
+        Node<T> variableChild(VariableType type) {
+            Node<T> result = variableChildren[type.ordinal()];
+            if (result == null) {
+                result = new Node<>();
+                variableChildren[type.ordinal()] = result;
+            }
+
+            return result;
+        }
+
+        @SuppressWarnings({"rawtypes", "unchecked"})
+        private static <T> Node<T>[] newArray(int length) {
+            return new Node[length];
+        }
+    }
+
+    private static final class Route<T> {
+
+        private final AtomicInteger active = new AtomicInteger();
+        private final RouteHandler<T> handler;
+        private final int maxConcurrentRequests;
+        private final String template;
+        private final String[] variableNames;
+
+        Route(RouteHandler<T> handler, String template, String[] variableNames, int maxConcurrentRequests) {
+            this.handler = handler;
+            this.maxConcurrentRequests = maxConcurrentRequests;
+            this.template = template;
+            this.variableNames = variableNames;
+        }
+
+        PathVariables variables(String path, int[] bounds) {
+            if (variableNames.length == 0) {
+                return PathVariables.EMPTY;
+            }
+
+            String[] values = new String[variableNames.length];
+            for (int i = 0; i < values.length; ++i) {
+                values[i] = path.substring(bounds[2 * i], bounds[2 * i + 1]);
+            }
+
+            return new PathVariables(variableNames, values);
+        }
+    }
+
+    // ordered from the most to the least specific type
+    private enum VariableType {
+        Int(Integer.MIN_VALUE, Integer.MAX_VALUE),
+        Long(java.lang.Long.MIN_VALUE, java.lang.Long.MAX_VALUE),
+        Text(0, 0);
+
+        private final long max;
+        private final long min;
+
+        VariableType(long min, long max) {
+            this.max = max;
+            this.min = min;
+        }
+
+        static VariableType parse(String name, String template) {
+            switch (name) {
+                case "int":
+                    return Int;
+                case "long":
+                    return Long;
+                case "string":
+                    return Text;
+                default:
+                    throw new IllegalArgumentException("Unknown variable type '" + name + "' in template '" + template +
+                                                       "'.");
+            }
+        }
+
+        boolean matches(String path, int start, int end) {
+            if (this == Text) {
+                return true;
+            }
+
+            boolean negative = path.charAt(start) == '-';
+            int pos = negative ? start + 1 : start;
+            if (pos == end) {
+                return false;
+            }
+
+            // accumulate negatively like Long.parseLong to cover the minimum value
+            long value = 0;
+            while (pos < end) {
+                int digit = path.charAt(pos) - '0';
+                if (digit < 0 || digit > 9 || value < (java.lang.Long.MIN_VALUE + digit) / 10) {
+                    return false;
+                }
+
+                value = value * 10 - digit;
+                ++pos;
+            }
+
+            if (!negative) {
+                if (value == java.lang.Long.MIN_VALUE) {
+                    return false;
+                }
+
+                value = -value;
+            }
+
+            return min <= value && value <= max;
+        }
+    }
+}
@@ -18,12 +18,14 @@ package ch.kinet.http;
 
 import ch.kinet.Data;
 import ch.kinet.JsonObject;
+import ch.kinet.Trace;
 import ch.kinet.Util;
 import com.google.gson.JsonSyntaxException;
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.ExpiredJwtException;
 import io.jsonwebtoken.Jws;
 import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.MalformedJwtException;
 import io.jsonwebtoken.PrematureJwtException;
@@ -31,74 +33,206 @@ import io.jsonwebtoken.SigningKeyResolverAdapter;
 import io.jsonwebtoken.UnsupportedJwtException;
 import io.jsonwebtoken.security.SignatureException;
 import io.undertow.Undertow;
+import io.undertow.UndertowOptions;
+import io.undertow.io.UndertowOutputStream;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
+import io.undertow.server.RequestTooBigException;
+import io.undertow.server.handlers.GracefulShutdownHandler;
+import io.undertow.server.handlers.ProxyPeerAddressHandler;
+import io.undertow.server.handlers.RequestLimitingHandler;
 import io.undertow.server.handlers.form.FormData;
 import io.undertow.server.handlers.form.FormDataParser;
+import io.undertow.server.handlers.form.FormEncodedDataDefinition;
 import io.undertow.server.handlers.form.FormParserFactory;
+import io.undertow.server.handlers.form.MultiPartParserDefinition;
+import io.undertow.server.handlers.sse.ServerSentEventHandler;
+import io.undertow.util.ByteRange;
+import io.undertow.util.DateUtils;
 import io.undertow.util.HeaderMap;
 import io.undertow.util.Headers;
 import io.undertow.util.HttpString;
-import java.io.BufferedReader;
+import io.undertow.util.Methods;
+import io.undertow.util.SameThreadExecutor;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
 import java.net.URLEncoder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.Key;
-import java.util.Deque;
-import java.util.HashMap;
+import java.util.Date;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
-import org.xnio.Options;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+import org.json.JSONException;
+import org.xnio.IoUtils;
+import org.xnio.channels.Channels;
+import org.xnio.channels.StreamSinkChannel;
 
 public final class Server<T> implements HttpHandler {
 
     private static final String MIME_MULTIPART_FORM_DATA = "multipart/form-data";
+    private static final String MIME_OCTET_STREAM = "application/octet-stream";
     private static final String METHOD_DELETE = "DELETE";
     private static final String METHOD_GET = "GET";
     private static final String METHOD_OPTIONS = "OPTIONS";
     private static final String METHOD_PATCH = "PATCH";
     private static final String METHOD_POST = "POST";
     private static final String METHOD_PUT = "PUT";
-    private static final Map<String, String> defaultHeaders = createDefaultHeaders();
     private static final Set<String> acceptedContentTypes = createAcceptedContentTypes();
+    private static final Set<String> compressibleContentTypes = createCompressibleContentTypes();
+    private static final int COMPRESSION_MIN_SIZE = 1024;
+    private static final int MAX_REQUEST_ID_LENGTH = 64;
+    private static final int RATE_LIMIT_STRIPES = 4096;
+    private static final HttpString REQUEST_ID_HEADER = HttpString.tryFromString(Trace.REQUEST_ID_HEADER);
+    private static final int TOKEN_CACHE_CAPACITY = 10000;
+    private static final long TOKEN_CACHE_MAX_TTL_MILLIS = 5 * 60 * 1000;
+    private final HttpString[] defaultHeaderNames;
+    private final String[] defaultHeaderValues;
+    private final FormParserFactory formParserFactory;
+    private final JwtParser jwtParser;
+    private final long maxBodySize;
+    private final ServerMetrics metrics;
+    private final String metricsPath;
+    private final RateLimiter rateLimiter;
+    private final ResponseCache responseCache;
     private final ServerImplementation<T> serverImplementation;
+    private final TokenCache<T> tokenCache;
+    private final long traceThresholdNanos;
 
-    public static <T> void start(int port, int ioThreads, int workerThreads,
-                                 ServerImplementation<T> requestHandler) {
-        Undertow server = Undertow.builder()
-            .setWorkerThreads(port)
-            .setWorkerOption(Options.WORKER_IO_THREADS, ioThreads)
-            .setWorkerOption(Options.WORKER_TASK_CORE_THREADS, workerThreads)
-            .setWorkerOption(Options.WORKER_TASK_MAX_THREADS, workerThreads)
-            .addHttpListener(port, "localhost")
-            .setHandler(new Server(requestHandler))
-            .build();
-        server.start();
+    /**
+     * Starts a server with the specified thread counts. Thread counts which are not positive select the defaults of
+     * {@link ServerOptions}.
+     *
+     * @param port the HTTP port
+     * @param ioThreads number of I/O threads
+     * @param workerThreads number of worker threads
+     * @param requestHandler the server implementation
+     * @return handle of the running server
+     */
+    public static <T> ServerHandle start(int port, int ioThreads, int workerThreads,
+                                         ServerImplementation<T> requestHandler) {
+        // this overload has always accepted any thread count, so invalid values are not rejected by the builder
+        ServerOptions.Builder options = ServerOptions.builder(port);
+        if (ioThreads > 0) {
+            options.ioThreads(ioThreads);
+        }
+
+        if (workerThreads > 0) {
+            options.workerThreads(workerThreads);
+        }
+
+        return start(options.build(), requestHandler);
+    }
+
+    public static <T> ServerHandle start(ServerOptions options, ServerImplementation<T> requestHandler) {
+        if (options == null) {
+            throw new NullPointerException("options");
+        }
+
+        HttpHandler handler = new Server<>(requestHandler, options);
+        if (options.isProxyAddressForwarding()) {
+            // the client address is taken from X-Forwarded-For, which is only trustworthy behind a reverse proxy
+            handler = new ProxyPeerAddressHandler(handler);
+        }
+
+        if (options.getMaxConcurrentRequests() > 0) {
+            // excess requests are queued, requests beyond the queue limit are answered with 503
+            handler = new RequestLimitingHandler(options.getMaxConcurrentRequests(), options.getQueueLimit(), handler);
+        }
+
+        // outermost handler, tracks the requests in flight for a graceful shutdown
+        GracefulShutdownHandler gracefulShutdown = new GracefulShutdownHandler(handler);
+
+        Undertow.Builder builder = Undertow.builder()
+            .setIoThreads(options.getIoThreads())
+            .setWorkerThreads(options.getWorkerThreads())
+            .setBufferSize(options.getBufferSize())
+            .setDirectBuffers(options.isDirectBuffers())
+            .setServerOption(UndertowOptions.ENABLE_HTTP2, options.isHttp2())
+            .setHandler(gracefulShutdown);
+        if (options.isHttpEnabled()) {
+            builder.addHttpListener(options.getPort(), options.getBindAddress());
+        }
+
+        if (options.getSslContext() != null) {
+            // HTTP/2 is negotiated with ALPN, which is supported by the JDK since Java 9
+            builder.addHttpsListener(options.getHttpsPort(), options.getBindAddress(), options.getSslContext());
+        }
+
+        Undertow undertow = builder.build();
+        undertow.start();
+        return new ServerHandle(undertow, gracefulShutdown, options.getMetrics());
     }
 
     private static Set<String> createAcceptedContentTypes() {
         Set<String> result = new HashSet<>();
+        result.add(Data.MIME_TYPE_DEFAULT);
         result.add(Data.MIME_TYPE_JSON);
-        result.add(Data.MIME_TYPE_JSON);
+        result.add(Data.MIME_TYPE_TEXT);
+        result.add(MIME_OCTET_STREAM);
         return result;
     }
 
-    private static Map<String, String> createDefaultHeaders() {
-        Map<String, String> result = new HashMap<>();
-        result.put("Access-Control-Allow-Headers", "Authorization,Content-Type");
-        result.put("Access-Control-Allow-Methods", "DELETE,GET,PATCH,POST,PUT");
-        result.put("Access-Control-Allow-Origin", "*");
-        result.put("Access-Control-Expose-Headers", "Content-Disposition");
-        result.put("Access-Control-Max-Age", "0");
-        result.put("Content-Security-Policy", "base-uri 'none'; connect-src 'none'; default-src 'none'; form-action 'none'; frame-ancestors 'none'; script-src 'none'");
-        result.put("Strict-Transport-Security", "max-age=15552000; includeSubDomains; preload");
+    private static Set<String> createCompressibleContentTypes() {
+        Set<String> result = new HashSet<>();
+        result.add(Data.MIME_TYPE_CSV);
+        result.add(Data.MIME_TYPE_ICAL);
+        result.add(Data.MIME_TYPE_JSON);
+        result.add(Data.MIME_TYPE_TEXT);
+        result.add("application/xhtml+xml");
         return result;
     }
 
-    private Server(ServerImplementation<T> requestHandler) {
+    private Server(ServerImplementation<T> requestHandler, ServerOptions options) {
+        // uploads above the threshold are written to temporary files which Undertow deletes after the request
+        MultiPartParserDefinition multiPart = new MultiPartParserDefinition();
+        multiPart.setFileSizeThreshold(options.getUploadMemoryThreshold());
+        multiPart.setMaxIndividualFileSize(options.getMaxBodySize());
+        this.formParserFactory = FormParserFactory.builder(false)
+            .addParsers(new FormEncodedDataDefinition(), multiPart)
+            .build();
+        // header names are converted once, so no header objects are created per response
+        Map<String, String> headers = options.getDefaultHeaders();
+        this.defaultHeaderNames = new HttpString[headers.size()];
+        this.defaultHeaderValues = new String[headers.size()];
+        int i = 0;
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            defaultHeaderNames[i] = HttpString.tryFromString(entry.getKey());
+            defaultHeaderValues[i] = entry.getValue();
+            ++i;
+        }
+
+        this.maxBodySize = options.getMaxBodySize();
+        this.metrics = options.getMetrics();
+        this.metricsPath = options.getMetricsPath();
+        this.responseCache = options.getResponseCache();
+        this.rateLimiter = options.getRateLimitPerSecond() > 0 ?
+            new RateLimiter(options.getRateLimitPerSecond(), options.getRateLimitBurst(), RATE_LIMIT_STRIPES) : null;
         this.serverImplementation = requestHandler;
+        // the parser is immutable and thread safe, the key is resolved for each token
+        this.jwtParser = Jwts.parserBuilder().setSigningKeyResolver(new SigningKeyResolverAdapter() {
+
+            @Override
+            public Key resolveSigningKey(JwsHeader header, Claims claims) {
+                return serverImplementation.getSigningKey(header.getKeyId());
+            }
+        }).build();
+        this.tokenCache = new TokenCache<>(TOKEN_CACHE_CAPACITY, TOKEN_CACHE_MAX_TTL_MILLIS);
+        this.traceThresholdNanos = TimeUnit.MILLISECONDS.toNanos(options.getTraceThresholdMillis());
     }
 
     @Override
@@ -110,55 +244,215 @@ public final class Server<T> implements HttpHandler {
         }
 
         exchange.startBlocking();
+        if (metricsPath != null && metricsPath.equals(exchange.getRequestPath())) {
+            sendMetrics(exchange);
+            return;
+        }
+
+        RequestTiming timing = new RequestTiming();
+        exchange.putAttachment(RequestTiming.KEY, timing);
+        // spans are only recorded if traces are reported, otherwise opening a span costs nothing
+        String requestId = requestId(exchange);
+        Trace trace = null;
+        if (traceThresholdNanos > 0) {
+            trace = Trace.start(requestId, exchange.getRequestMethod() + " " + exchange.getRequestPath());
+            requestId = trace.getId();
+        }
+
+        timing.setTrace(trace);
+        if (requestId != null) {
+            exchange.getResponseHeaders().put(REQUEST_ID_HEADER, requestId);
+        }
+
+        metrics.requestStarted();
         Response response = null;
         T authorisation = null;
 
-        // check authorisation
+        // check authorisation, the request is completed in any case so the gauge and the trace are released
         String authorisationHeader = exchange.getRequestHeaders().getFirst(Headers.AUTHORIZATION);
-        if (Util.startsWith(authorisationHeader, "Bearer ")) {
-            String token = authorisationHeader.substring(7);
-            try {
-                Jws<Claims> jws = Jwts.parserBuilder().setSigningKeyResolver(new SigningKeyResolverAdapter() {
-
-                    @Override
-                    public Key resolveSigningKey(JwsHeader header, Claims claims) {
-                        return serverImplementation.getSigningKey(header.getKeyId());
+        boolean bearer = Util.startsWith(authorisationHeader, "Bearer ");
+        try {
+            if (bearer) {
+                String token = authorisationHeader.substring(7);
+                // skip signature verification for tokens which have been verified before
+                authorisation = tokenCache.get(token);
+                long waitNanos = authorisation == null && rateLimiter != null ?
+                    rateLimiter.waitNanos(clientAddress(exchange)) : 0;
+                if (waitNanos > 0) {
+                    // clients which have sent invalid tokens are throttled before verifying a signature again
+                    response = Response.tooManyRequests(TimeUnit.NANOSECONDS.toSeconds(waitNanos) + 1);
+                }
+                else if (authorisation == null) {
+                    try {
+                        Jws<Claims> jws = jwtParser.parseClaimsJws(token);
+                        authorisation = serverImplementation.checkAuthorisation(jws.getBody());
+                        if (authorisation == null) {
+                            response = Response.unauthorized();
+                        }
+                        else {
+                            tokenCache.put(token, authorisation, jws.getBody().getExpiration());
+                        }
+                    }
+                    catch (PrematureJwtException ex) {
+                        response = Response.unauthorized("Token is not yet valid.");
+                    }
+                    catch (ExpiredJwtException ex) {
+                        response = Response.unauthorized("Token has expired.");
+                    }
+                    catch (MalformedJwtException | IllegalArgumentException | JsonSyntaxException ex) {
+                        response = Response.unauthorized("Invalid token.");
+                    }
+                    catch (UnsupportedJwtException ex) {
+                        response = Response.unauthorized("Unsupported token type.");
+                    }
+                    catch (SignatureException ex) {
+                        response = Response.unauthorized("Invalid token signature.");
                     }
-                }).build().parseClaimsJws(token);
-                authorisation = serverImplementation.checkAuthorisation(jws.getBody());
-                if (authorisation == null) {
-                    response = Response.unauthorized();
                 }
             }
-            catch (PrematureJwtException ex) {
-                response = Response.unauthorized("Token is not yet valid.");
+            else {
+                authorisation = serverImplementation.publicAuthorisation();
             }
-            catch (ExpiredJwtException ex) {
-                response = Response.unauthorized("Token has expired.");
+        }
+        catch (RuntimeException ex) {
+            // e.g. a failing user lookup in checkAuthorisation
+            serverImplementation.handleException(ex);
+            authorisation = null;
+            response = Response.internalServerError();
+        }
+
+        if (bearer && authorisation == null && rateLimiter != null) {
+            // failed authorisations count against the client address
+            rateLimiter.tryAcquire(clientAddress(exchange));
+        }
+
+        if (authorisation != null && rateLimiter != null) {
+            // the public authorisation is shared by all anonymous clients, so they are told apart by address
+            Object key = bearer ? authorisation : clientAddress(exchange);
+            long waitNanos = rateLimiter.tryAcquire(key);
+            if (waitNanos > 0) {
+                authorisation = null;
+                response = Response.tooManyRequests(TimeUnit.NANOSECONDS.toSeconds(waitNanos) + 1);
             }
-            catch (MalformedJwtException | IllegalArgumentException | JsonSyntaxException ex) {
-                response = Response.unauthorized("Invalid token.");
+        }
+
+        timing.mark(ServerMetrics.Phase.Auth);
+        if (authorisation == null) {
+            completeRequest(exchange, response);
+            return;
+        }
+
+        CompletableFuture<Response> future;
+        try {
+            future = processRequest(authorisation, exchange);
+        }
+        finally {
+            // the worker thread is reused, the trace is bound again when the response is completed
+            if (trace != null) {
+                trace.deactivate();
             }
-            catch (UnsupportedJwtException ex) {
-                response = Response.unauthorized("Unsupported token type.");
+        }
+
+        if (future.isDone()) {
+            finishRequest(exchange, future);
+            return;
+        }
+
+        // release the worker thread until the handler has completed the response
+        exchange.dispatch(SameThreadExecutor.INSTANCE, () -> future.whenComplete(
+                          (result, ex) -> exchange.dispatch(() -> finishRequest(exchange, future))));
+    }
+
+    private void finishRequest(HttpServerExchange exchange, CompletableFuture<Response> future) {
+        Response response;
+        try {
+            response = future.join();
+        }
+        catch (CompletionException | CancellationException ex) {
+            if (isBodyTooLarge(ex)) {
+                response = Response.payloadTooLarge();
             }
-            catch (SignatureException ex) {
-                response = Response.unauthorized("Invalid token signature.");
+            else {
+                serverImplementation.handleException(ex.getCause() == null ? ex : ex.getCause());
+                response = Response.internalServerError();
             }
         }
-        else {
-            authorisation = serverImplementation.publicAuthorisation();
+
+        completeRequest(exchange, response);
+    }
+
+    private void completeRequest(HttpServerExchange exchange, Response response) {
+        RequestTiming timing = exchange.getAttachment(RequestTiming.KEY);
+        Trace trace = timing.getTrace();
+        if (trace != null) {
+            trace.activate();
         }
 
-        if (authorisation != null) {
-            response = processRequest(authorisation, exchange);
+        response = resolve(response);
+        timing.mark(ServerMetrics.Phase.Handler);
+        Trace.Span span = Trace.span("write");
+        try {
+            if (exchange.isResponseStarted()) {
+                // Undertow has already rejected the request, e.g. a chunked body exceeding the size limit
+                exchange.endExchange();
+            }
+            else if (response.getEventStream() == null) {
+                translateResponse(exchange, response);
+                exchange.endExchange();
+            }
+            else {
+                startEventStream(exchange, response);
+            }
+        }
+        finally {
+            span.close();
+            response.getBody().release();
+            timing.mark(ServerMetrics.Phase.Write);
+            metrics.record(exchange.getRequestMethod().toString(), timing.getRoute(), exchange.getStatusCode(),
+                           timing.getPhaseNanos());
+            metrics.requestFinished();
+            if (trace != null) {
+                trace.finish();
+                if (trace.getDurationNanos() >= traceThresholdNanos) {
+                    serverImplementation.requestTraced(trace);
+                }
+            }
         }
+    }
 
-        translateResponse(exchange, response);
-        exchange.endExchange();
+    private void addDefaultHeaders(HeaderMap headers) {
+        for (int i = 0; i < defaultHeaderNames.length; ++i) {
+            headers.add(defaultHeaderNames[i], defaultHeaderValues[i]);
+        }
     }
 
-    private Response processRequest(T authorisation, HttpServerExchange exchange) {
+    private void startEventStream(HttpServerExchange exchange, Response response) {
+        HeaderMap headers = exchange.getResponseHeaders();
+        addDefaultHeaders(headers);
+
+        headers.put(Headers.CACHE_CONTROL, "no-cache");
+        exchange.setStatusCode(response.getStatus());
+        EventStream stream = response.getEventStream();
+        try {
+            // the exchange stays open, events are written by the IO thread
+            new ServerSentEventHandler((connection, lastEventId) -> stream.connected(connection))
+                .handleRequest(exchange);
+        }
+        catch (Exception ex) {
+            serverImplementation.handleException(ex);
+            stream.close();
+            exchange.setStatusCode(Status.INTERNAL_SERVER_ERROR);
+            exchange.endExchange();
+        }
+    }
+
+    private void sendMetrics(HttpServerExchange exchange) {
+        exchange.setStatusCode(Status.OK);
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "text/plain; version=0.0.4");
+        exchange.getResponseSender().send(metrics.toText());
+    }
+
+    private CompletableFuture<Response> processRequest(T authorisation, HttpServerExchange exchange) {
         try {
             String method = exchange.getRequestMethod().toString();
             switch (method) {
@@ -167,7 +461,7 @@ public final class Server<T> implements HttpHandler {
                 case METHOD_GET:
                     return processGet(authorisation, exchange);
                 case METHOD_OPTIONS:
-                    return Response.ok();
+                    return CompletableFuture.completedFuture(Response.ok());
                 case METHOD_PATCH:
                     return processRequestWithBody(authorisation, exchange, Request.Method.Patch);
                 case METHOD_POST:
@@ -175,38 +469,151 @@ public final class Server<T> implements HttpHandler {
                 case METHOD_PUT:
                     return processRequestWithBody(authorisation, exchange, Request.Method.Put);
                 default:
-                    return Response.methodNotAllowed();
+                    return CompletableFuture.completedFuture(Response.methodNotAllowed());
             }
 
         }
         catch (RuntimeException ex) {
+            if (isBodyTooLarge(ex)) {
+                return CompletableFuture.completedFuture(Response.payloadTooLarge());
+            }
+
             serverImplementation.handleException(ex);
-            return Response.internalServerError();
+            return CompletableFuture.completedFuture(Response.internalServerError());
+        }
+    }
+
+    private CompletableFuture<Response> processDelete(T authorisation, HttpServerExchange exchange) {
+        Request<T> r = Request.createDelete(authorisation, exchange.getRequestPath(), parseQuery(exchange));
+        return handle(exchange, r);
+    }
+
+    private CompletableFuture<Response> processGet(T authorisation, HttpServerExchange exchange) {
+        Request<T> r = Request.createGet(authorisation, exchange.getRequestPath(), parseQuery(exchange));
+        Object partition = responseCache == null ? null : serverImplementation.cachePartition(authorisation);
+        if (partition == null) {
+            return handle(exchange, r).thenApply(response -> applyETag(exchange, response));
+        }
+
+        ResponseCache.Entry entry = responseCache.get(partition, r.getPath(), r.getQuery());
+        if (entry != null) {
+            // cache hit, the handler is skipped
+            RequestTiming timing = exchange.getAttachment(RequestTiming.KEY);
+            timing.mark(ServerMetrics.Phase.Parse);
+            r.setRoute(entry.getRoute());
+            timing.setRequest(r);
+            attachGzipContent(exchange, entry);
+            return CompletableFuture.completedFuture(applyETag(exchange, entry.toResponse()));
+        }
+
+        return handle(exchange, r).thenApply(response -> cacheResponse(exchange, partition, r,
+                                                                       applyETag(exchange, response)));
+    }
+
+    private Response cacheResponse(HttpServerExchange exchange, Object partition, Request<T> request,
+                                   Response response) {
+        if (response == null || response.getCacheSeconds() <= 0 || response.getStatus() != Status.OK) {
+            return response;
         }
+
+        Data body = response.getBody();
+        if (body.isEmpty() || body.path() != null) {
+            return response;
+        }
+
+        byte[] content = body.toBytes();
+        if (response.getETag() == null) {
+            response = response.withBody(Data.binary(content, body.fileName(), body.mimeType()),
+                                         Response.formatETag(hash(content)));
+        }
+
+        boolean compress = compressibleContentTypes.contains(body.mimeType()) && content.length >= COMPRESSION_MIN_SIZE;
+        attachGzipContent(exchange, responseCache.put(partition, request, response, content, compress));
+        return response;
     }
 
-    private Response processDelete(T authorisation, HttpServerExchange exchange) {
-        Request r = Request.createDelete(authorisation, exchange.getRequestPath(), parseQuery(exchange));
-        return serverImplementation.handleRequest(r);
+    private static void attachGzipContent(HttpServerExchange exchange, ResponseCache.Entry entry) {
+        if (entry.getGzipContent() != null) {
+            exchange.putAttachment(ResponseCache.GZIP_BODY, entry.getGzipContent());
+        }
     }
 
-    private Response processGet(T authorisation, HttpServerExchange exchange) {
-        Request r = Request.createGet(authorisation, exchange.getRequestPath(), parseQuery(exchange));
-        return serverImplementation.handleRequest(r);
+    /**
+     * Produces the body of a versioned response. For GET requests this has already been done by applyETag unless the
+     * client has the current version, for other methods the producer is always called.
+     */
+    private Response resolve(Response response) {
+        if (response == null) {
+            return null;
+        }
+
+        try {
+            return response.resolve();
+        }
+        catch (RuntimeException ex) {
+            serverImplementation.handleException(ex);
+            return Response.internalServerError();
+        }
     }
 
-    private Data extractFirstFile(HttpServerExchange exchange) {
-        FormDataParser parser = FormParserFactory.builder().build().createParser(exchange);
+    private Response applyETag(HttpServerExchange exchange, Response response) {
+        if (response == null) {
+            return null;
+        }
+
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst(Headers.IF_NONE_MATCH);
+        String eTag = response.getETag();
+        if (eTag != null) {
+            // version supplied by the handler, the body is only produced if the client needs it, errors are never
+            // turned into 304 Not Modified
+            if (response.getStatus() == Status.OK && matchesETag(ifNoneMatch, eTag)) {
+                return Response.notModified(eTag);
+            }
+
+            return response.resolve();
+        }
+
+        Data body = response.getBody();
+        if (response.getStatus() != Status.OK || body.isEmpty() || body.isStreamed()) {
+            return response;
+        }
+
+        byte[] content = body.toBytes();
+        eTag = Response.formatETag(hash(content));
+        if (matchesETag(ifNoneMatch, eTag)) {
+            return Response.notModified(eTag);
+        }
+
+        return response.withBody(Data.binary(content, body.fileName(), body.mimeType()), eTag);
+    }
+
+    private Data extractFirstFile(HttpServerExchange exchange) throws BodyTooLargeException {
+        if (exchange.getRequestContentLength() > maxBodySize) {
+            throw new BodyTooLargeException();
+        }
+
+        // the whole multipart body is limited as well, not only the individual files
+        exchange.setMaxEntitySize(maxBodySize);
+        FormDataParser parser = formParserFactory.createParser(exchange);
         try {
             FormData form = parser.parseBlocking();
             for (String name : form) {
                 for (FormData.FormValue value : form.get(name)) {
                     if (value.isFileItem()) {
-                        return Data.file(value.getFileItem().getInputStream(), value.getFileName());
+                        FormData.FileItem item = value.getFileItem();
+                        if (item.isInMemory()) {
+                            return Data.file(item.getInputStream(), value.getFileName());
+                        }
+                        else {
+                            return Data.file(item.getFile(), value.getFileName());
+                        }
                     }
                 }
             }
         }
+        catch (RequestTooBigException | MultiPartParserDefinition.FileTooLargeException ex) {
+            throw new BodyTooLargeException();
+        }
         catch (IOException ex) {
             ex.printStackTrace();
             return null;
@@ -215,17 +622,24 @@ public final class Server<T> implements HttpHandler {
         return null;
     }
 
-    private Response processRequestWithBody(T authorisation, HttpServerExchange exchange, Request.Method method) {
+    private CompletableFuture<Response> processRequestWithBody(T authorisation, HttpServerExchange exchange,
+                                                               Request.Method method) {
         String contentType = exchange.getRequestHeaders().getFirst(Headers.CONTENT_TYPE);
         if (Util.isEmpty(contentType)) {
-            return Response.unsupportedMediaType();
+            return CompletableFuture.completedFuture(Response.unsupportedMediaType());
         }
 
         Data body;
         if (contentType.startsWith(MIME_MULTIPART_FORM_DATA)) {
-            body = extractFirstFile(exchange);
+            try {
+                body = extractFirstFile(exchange);
+            }
+            catch (BodyTooLargeException ex) {
+                return CompletableFuture.completedFuture(Response.payloadTooLarge());
+            }
+
             if (body == null) {
-                return Response.badRequest("Invalid form data");
+                return CompletableFuture.completedFuture(Response.badRequest("Invalid form data"));
             }
         }
         else {
@@ -235,20 +649,44 @@ public final class Server<T> implements HttpHandler {
             }
 
             if (!acceptedContentTypes.contains(contentType)) {
-                return Response.unsupportedMediaType();
+                return CompletableFuture.completedFuture(Response.unsupportedMediaType());
+            }
+
+            try {
+                body = parseBody(exchange, contentType);
+            }
+            catch (BodyTooLargeException ex) {
+                return CompletableFuture.completedFuture(Response.payloadTooLarge());
+            }
+            catch (MalformedBodyException ex) {
+                return CompletableFuture.completedFuture(Response.badRequest("Invalid JSON"));
             }
 
-            body = parseBody(exchange, contentType);
             if (body == null) {
-                return Response.internalServerError();
+                return CompletableFuture.completedFuture(Response.internalServerError());
             }
         }
 
         Request<T> r = Request.withBody(method, authorisation, exchange.getRequestPath(), parseQuery(exchange), body);
-        return serverImplementation.handleRequest(r);
+        return handle(exchange, r);
+    }
+
+    private CompletableFuture<Response> handle(HttpServerExchange exchange, Request<T> request) {
+        RequestTiming timing = exchange.getAttachment(RequestTiming.KEY);
+        timing.mark(ServerMetrics.Phase.Parse);
+        timing.setRequest(request);
+        request.setTrace(timing.getTrace());
+        Trace.Span span = Trace.span("handler");
+        try {
+            return serverImplementation.handleRequestAsync(request);
+        }
+        finally {
+            span.close();
+        }
     }
 
-    private Data parseBody(HttpServerExchange exchange, String contentType) {
+    private Data parseBody(HttpServerExchange exchange, String contentType)
+        throws BodyTooLargeException, MalformedBodyException {
         try {
             switch (contentType) {
                 case Data.MIME_TYPE_JSON:
@@ -259,63 +697,124 @@ public final class Server<T> implements HttpHandler {
                     return parseBinaryBody(exchange, contentType);
             }
         }
+        catch (BodyTooLargeException ex) {
+            throw ex;
+        }
         catch (IOException | RuntimeException ex) {
+            if (ex.getCause() instanceof BodyTooLargeException) {
+                throw (BodyTooLargeException) ex.getCause();
+            }
+
+            // syntax errors are the client's fault, while read errors are wrapped by the tokener as well
+            if (ex instanceof JSONException && !(ex.getCause() instanceof IOException)) {
+                throw new MalformedBodyException();
+            }
+
             ex.printStackTrace();
             return null;
         }
     }
 
-    private Data parseBinaryBody(HttpServerExchange exchange, String contentType) throws IOException {
-        return Data.binary(exchange.getInputStream(), null, contentType);
+    private Data parseBinaryBody(HttpServerExchange exchange, String contentType) throws BodyTooLargeException {
+        // uploads are passed to the handler without buffering them, reading beyond the limit fails in the handler
+        return Data.stream(limitedInputStream(exchange), null, contentType);
     }
 
     private Data parseJsonBody(HttpServerExchange exchange) throws IOException {
-        StringBuilder builder = new StringBuilder();
-        BufferedReader reader = new BufferedReader(new InputStreamReader(exchange.getInputStream()));
-        String line;
-        while ((line = reader.readLine()) != null) {
-            builder.append(line);
+        // parse directly from the request stream instead of copying the body into a string first
+        Reader reader = new InputStreamReader(limitedInputStream(exchange), StandardCharsets.UTF_8);
+        return Data.json(JsonObject.create(reader));
+    }
+
+    private Data parseTextBody(HttpServerExchange exchange) throws IOException {
+        long length = exchange.getRequestContentLength();
+        InputStream in = limitedInputStream(exchange);
+        byte[] content = length >= 0 && length <= Integer.MAX_VALUE ? in.readNBytes((int) length) : in.readAllBytes();
+        return Data.text(new String(content, StandardCharsets.UTF_8));
+    }
+
+    private InputStream limitedInputStream(HttpServerExchange exchange) throws BodyTooLargeException {
+        if (exchange.getRequestContentLength() > maxBodySize) {
+            throw new BodyTooLargeException();
         }
 
-        return Data.json(JsonObject.create(builder.toString()));
+        return new LimitedInputStream(exchange.getInputStream(), maxBodySize);
     }
 
-    private Data parseTextBody(HttpServerExchange exchange) throws IOException {
-        StringBuilder builder = new StringBuilder();
-        BufferedReader reader = new BufferedReader(new InputStreamReader(exchange.getInputStream()));
-        String line;
-        while ((line = reader.readLine()) != null) {
-            builder.append(line);
+    /**
+     * Returns the address of the client. Behind a reverse proxy, this is the forwarded address if proxy address
+     * forwarding is enabled in the server options.
+     */
+    private static InetAddress clientAddress(HttpServerExchange exchange) {
+        return exchange.getSourceAddress().getAddress();
+    }
+
+    /**
+     * Returns true if the exception has been caused by a streamed request body exceeding the maximum body size while
+     * the handler was reading it.
+     */
+    private static boolean isBodyTooLarge(Throwable throwable) {
+        Throwable cause = throwable;
+        while (cause != null) {
+            if (cause instanceof BodyTooLargeException) {
+                return true;
+            }
+
+            cause = cause.getCause();
         }
 
-        return Data.text(builder.toString());
+        return false;
     }
 
-    private Query parseQuery(HttpServerExchange exchange) {
-        Map<String, String[]> queryParameters = new HashMap<>();
-        for (Map.Entry<String, Deque<String>> entry : exchange.getQueryParameters().entrySet()) {
-            queryParameters.put(entry.getKey(), entry.getValue().toArray(new String[0]));
+    /**
+     * Returns the request id sent by the client or a proxy, so the trace can be correlated with their logs. Ids which
+     * are too long or contain unexpected characters are ignored.
+     */
+    private static String requestId(HttpServerExchange exchange) {
+        String result = exchange.getRequestHeaders().getFirst(REQUEST_ID_HEADER);
+        if (result == null || result.isEmpty() || result.length() > MAX_REQUEST_ID_LENGTH) {
+            return null;
+        }
+
+        for (int i = 0; i < result.length(); ++i) {
+            char ch = result.charAt(i);
+            if (!Character.isLetterOrDigit(ch) && ch != '-' && ch != '_' && ch != '.') {
+                return null;
+            }
         }
 
-        return Query.create(queryParameters);
+        return result;
+    }
+
+    private Query parseQuery(HttpServerExchange exchange) {
+        return Query.wrap(exchange.getQueryParameters());
     }
 
     private void translateResponse(HttpServerExchange exchange, Response response) {
         HeaderMap headers = exchange.getResponseHeaders();
-        for (Map.Entry<String, String> entry : defaultHeaders.entrySet()) {
-            headers.add(new HttpString(entry.getKey()), entry.getValue());
-        }
+        addDefaultHeaders(headers);
 
         Data body = response.getBody();
         exchange.setStatusCode(response.getStatus());
+        if (response.getETag() != null) {
+            headers.put(Headers.ETAG, response.getETag());
+        }
+
+        for (Map.Entry<String, String> entry : response.getHeaders().entrySet()) {
+            headers.put(HttpString.tryFromString(entry.getKey()), entry.getValue());
+        }
+
         exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, body.mimeType());
         String fileName = body.fileName();
         if (fileName != null) {
             exchange.getResponseHeaders().put(Headers.CONTENT_DISPOSITION, createContentDispositionHeader(fileName));
         }
         try {
-            if (!body.isEmpty()) {
-                exchange.getOutputStream().write(body.toBytes());
+            if (body.path() != null && response.getStatus() == Status.OK) {
+                sendFile(exchange, body.path());
+            }
+            else if (!body.isEmpty()) {
+                writeBody(exchange, body);
             }
         }
         catch (IOException ex) {
@@ -323,11 +822,192 @@ public final class Server<T> implements HttpHandler {
             exchange.endExchange();
             return;
         }
+        catch (RuntimeException ex) {
+            // a streamed body failed while being written, the response may already be committed
+            serverImplementation.handleException(ex);
+            if (exchange.isResponseStarted()) {
+                // the status has been sent, closing the connection tells the client that the body is incomplete
+                IoUtils.safeClose(exchange.getConnection());
+            }
+            else {
+                if (exchange.getOutputStream() instanceof UndertowOutputStream) {
+                    ((UndertowOutputStream) exchange.getOutputStream()).resetBuffer();
+                }
+
+                exchange.getResponseHeaders().remove(Headers.CONTENT_ENCODING);
+                exchange.setStatusCode(Status.INTERNAL_SERVER_ERROR);
+            }
+
+            exchange.endExchange();
+            return;
+        }
 
         // required!
         exchange.endExchange();
     }
 
+    private static void sendFile(HttpServerExchange exchange, Path path) throws IOException {
+        HeaderMap headers = exchange.getResponseHeaders();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            Date lastModified = new Date(Files.getLastModifiedTime(path).toMillis());
+            headers.put(Headers.ACCEPT_RANGES, "bytes");
+            headers.put(Headers.LAST_MODIFIED, DateUtils.toDateString(lastModified));
+            long start = 0;
+            long length = size;
+            String ifRange = exchange.getRequestHeaders().getFirst(Headers.IF_RANGE);
+            ByteRange range = ByteRange.parse(exchange.getRequestHeaders().getFirst(Headers.RANGE));
+            // files have no entity tag, so an If-Range with an entity tag never matches
+            boolean rangeValid = ifRange == null || !(ifRange.startsWith("\"") || ifRange.startsWith("W/"));
+            if (range != null && range.getRanges() == 1 && rangeValid) {
+                ByteRange.RangeResponseResult result = range.getResponseResult(size, ifRange, lastModified, null);
+                if (result != null) {
+                    exchange.setStatusCode(result.getStatusCode());
+                    headers.put(Headers.CONTENT_RANGE, result.getContentRange());
+                    if (result.getStatusCode() == Status.RANGE_NOT_SATISFIABLE) {
+                        headers.put(Headers.CONTENT_LENGTH, 0);
+                        return;
+                    }
+
+                    start = result.getStart();
+                    length = result.getContentLength();
+                }
+            }
+
+            headers.put(Headers.CONTENT_LENGTH, length);
+            if (length == 0 || Methods.HEAD.equals(exchange.getRequestMethod())) {
+                return;
+            }
+
+            // the channel transfer uses sendfile where the connection allows it, the file never enters the heap
+            StreamSinkChannel sink = exchange.getResponseChannel();
+            Channels.transferBlocking(sink, channel, start, length);
+            sink.shutdownWrites();
+            Channels.flushBlocking(sink);
+        }
+    }
+
+    private void writeBody(HttpServerExchange exchange, Data body) throws IOException {
+        if (!compressibleContentTypes.contains(body.mimeType())) {
+            body.writeTo(exchange.getOutputStream());
+            return;
+        }
+
+        exchange.getResponseHeaders().put(Headers.VARY, Headers.ACCEPT_ENCODING_STRING);
+        String encoding = negotiateEncoding(exchange.getRequestHeaders().getFirst(Headers.ACCEPT_ENCODING));
+        if (encoding == null) {
+            body.writeTo(exchange.getOutputStream());
+            return;
+        }
+
+        byte[] gzipContent = exchange.getAttachment(ResponseCache.GZIP_BODY);
+        if (gzipContent != null && CompressingOutputStream.GZIP.equals(encoding)) {
+            // body from the response cache which has been compressed before
+            exchange.getResponseHeaders().put(Headers.CONTENT_ENCODING, encoding);
+            exchange.getOutputStream().write(gzipContent);
+            return;
+        }
+
+        CompressingOutputStream out = new CompressingOutputStream(exchange, encoding, COMPRESSION_MIN_SIZE);
+        try {
+            body.writeTo(out);
+            out.finish();
+        }
+        finally {
+            out.end();
+        }
+
+        if (out.isCompressed()) {
+            serverImplementation.responseCompressed(exchange.getRequestPath(), encoding,
+                                                    out.getUncompressedBytes(), out.getCompressedBytes(),
+                                                    out.getCpuNanos());
+        }
+    }
+
+    private static String negotiateEncoding(String acceptEncoding) {
+        if (Util.isEmpty(acceptEncoding)) {
+            return null;
+        }
+
+        boolean deflate = false;
+        boolean gzip = false;
+        boolean gzipRejected = false;
+        boolean wildcard = false;
+        for (String part : acceptEncoding.split(",")) {
+            String coding = part.trim();
+            int pos = coding.indexOf(';');
+            if (pos >= 0) {
+                boolean rejected = isZeroQuality(coding.substring(pos + 1));
+                coding = coding.substring(0, pos).trim();
+                if (rejected) {
+                    gzipRejected |= CompressingOutputStream.GZIP.equalsIgnoreCase(coding);
+                    continue;
+                }
+            }
+
+            if (CompressingOutputStream.GZIP.equalsIgnoreCase(coding)) {
+                gzip = true;
+            }
+            else if (CompressingOutputStream.DEFLATE.equalsIgnoreCase(coding)) {
+                deflate = true;
+            }
+            else if ("*".equals(coding)) {
+                wildcard = true;
+            }
+        }
+
+        if (gzip || (wildcard && !gzipRejected)) {
+            return CompressingOutputStream.GZIP;
+        }
+        else if (deflate) {
+            return CompressingOutputStream.DEFLATE;
+        }
+        else {
+            return null;
+        }
+    }
+
+    private static String hash(byte[] content) {
+        CRC32C crc = new CRC32C();
+        crc.update(content);
+        return Integer.toHexString(content.length) + "-" + Long.toHexString(crc.getValue());
+    }
+
+    private static boolean matchesETag(String ifNoneMatch, String eTag) {
+        if (Util.isEmpty(ifNoneMatch)) {
+            return false;
+        }
+
+        // weak comparison, the W/ prefix is ignored
+        String opaqueTag = stripWeakPrefix(eTag);
+        for (String part : ifNoneMatch.split(",")) {
+            String candidate = part.trim();
+            if ("*".equals(candidate) || opaqueTag.equals(stripWeakPrefix(candidate))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static String stripWeakPrefix(String eTag) {
+        return eTag.startsWith("W/") ? eTag.substring(2) : eTag;
+    }
+
+    private static boolean isZeroQuality(String parameters) {
+        String value = parameters.trim();
+        if (!value.startsWith("q=")) {
+            return false;
+        }
+
+        try {
+            return Double.parseDouble(value.substring(2).trim()) <= 0;
+        }
+        catch (NumberFormatException ex) {
+            return false;
+        }
+    }
+
     private static String encodeURIComponent(String s) {
         try {
             return URLEncoder.encode(s, "UTF-8")
@@ -350,4 +1030,55 @@ public final class Server<T> implements HttpHandler {
         result.append(encodeURIComponent(fileName));
         return result.toString();
     }
+
+    private static final class BodyTooLargeException extends IOException {
+
+        BodyTooLargeException() {
+            super("Request body too large.");
+        }
+    }
+
+    private static final class MalformedBodyException extends IOException {
+
+        MalformedBodyException() {
+            super("Malformed request body.");
+        }
+    }
+
+    private static final class LimitedInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int result = super.read();
+            if (result >= 0) {
+                consume(1);
+            }
+
+            return result;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int result = super.read(b, off, len);
+            if (result > 0) {
+                consume(result);
+            }
+
+            return result;
+        }
+
+        private void consume(int count) throws BodyTooLargeException {
+            remaining -= count;
+            if (remaining < 0) {
+                throw new BodyTooLargeException();
+            }
+        }
+    }
 }
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2026 by Sebastian Forster, Stefan Rothe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY); without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.kinet.http;
+
+import io.undertow.Undertow;
+import io.undertow.server.handlers.GracefulShutdownHandler;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handle of a running server returned by Server.start.
+ */
+public final class ServerHandle {
+
+    private final GracefulShutdownHandler gracefulShutdown;
+    private final ServerMetrics metrics;
+    private final List<AutoCloseable> resources = new ArrayList<>();
+    private boolean stopped;
+    private final Undertow undertow;
+
+    ServerHandle(Undertow undertow, GracefulShutdownHandler gracefulShutdown, ServerMetrics metrics) {
+        this.gracefulShutdown = gracefulShutdown;
+        this.metrics = metrics;
+        this.undertow = undertow;
+    }
+
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Registers a resource which is closed when the server has been shut down, e.g. a FileStorage.
+     *
+     * @param resource the resource
+     */
+    public synchronized void onShutdown(AutoCloseable resource) {
+        if (resource == null) {
+            throw new NullPointerException("resource");
+        }
+
+        resources.add(resource);
+    }
+
+    /**
+     * Shuts the server down. New requests are answered with 503 Service Unavailable while the requests in flight are
+     * completed. When all requests have completed or the timeout has elapsed, the listeners and worker threads are
+     * stopped and the registered resources are closed.
+     *
+     * @param timeout maximum time to wait for requests in flight
+     * @param unit unit of the timeout
+     * @return true if all requests in flight have completed in time
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) {
+        List<AutoCloseable> toClose;
+        synchronized (this) {
+            if (stopped) {
+                return true;
+            }
+
+            stopped = true;
+            toClose = new ArrayList<>(resources);
+        }
+
+        gracefulShutdown.shutdown();
+        boolean drained;
+        try {
+            drained = gracefulShutdown.awaitShutdown(unit.toMillis(timeout));
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            drained = false;
+        }
+
+        undertow.stop();
+        for (AutoCloseable resource : toClose) {
+            try {
+                resource.close();
+            }
+            catch (Exception ex) {
+                // continue closing the other resources
+            }
+        }
+
+        return drained;
+    }
+}
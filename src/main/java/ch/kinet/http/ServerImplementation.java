@@ -16,18 +16,67 @@
  */
 package ch.kinet.http;
 
+import ch.kinet.Trace;
 import io.jsonwebtoken.Claims;
 import java.security.PublicKey;
+import java.util.concurrent.CompletableFuture;
 
 public interface ServerImplementation<T> {
 
+    /**
+     * Returns the key under which cached responses for the specified authorisation are stored. Requests with equal
+     * partition keys share cached responses. By default, responses are cached per authorisation. Return null to
+     * disable caching for the authorisation.
+     *
+     * @param authorisation the authorisation
+     * @return the cache partition key or null
+     */
+    default Object cachePartition(T authorisation) {
+        return authorisation;
+    }
+
     T checkAuthorisation(Claims claims);
 
     PublicKey getSigningKey(String keyId);
 
     Response handleRequest(Request<T> request);
 
+    /**
+     * Handles a request asynchronously. The server's worker thread is released while the returned future is pending,
+     * so slow requests do not block the worker pool. The default implementation calls handleRequest synchronously.
+     *
+     * @param request the request
+     * @return future completed with the response
+     */
+    default CompletableFuture<Response> handleRequestAsync(Request<T> request) {
+        return CompletableFuture.completedFuture(handleRequest(request));
+    }
+
     void handleException(Throwable exception);
 
     T publicAuthorisation();
+
+    /**
+     * Is called after a response body has been sent compressed.
+     *
+     * @param path the request path
+     * @param encoding the content encoding used
+     * @param uncompressedBytes the size of the body before compression
+     * @param compressedBytes the number of bytes sent
+     * @param cpuNanos the CPU time spent compressing in nanoseconds
+     */
+    default void responseCompressed(String path, String encoding, long uncompressedBytes, long compressedBytes,
+                                    long cpuNanos) {
+    }
+
+    /**
+     * Called with the span tree of a request which took longer than the trace threshold of the server options. The
+     * default implementation prints the trace as a single line to standard output, override it to pass the trace to
+     * the logging of the application.
+     *
+     * @param trace the finished trace
+     */
+    default void requestTraced(Trace trace) {
+        System.out.println("WARNING: " + trace.toLogLine());
+    }
 }
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2026 by Sebastian Forster, Stefan Rothe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY); without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.kinet.http;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects request metrics of a server: durations of the request phases per method and route, status code counts and
+ * the number of requests in flight. Recording is lock free.
+ * <p>
+ * The route is the template of the Router route which handled the request. Requests which were not dispatched by a
+ * Router are collected under the route "unmatched". Methods which are not supported by the server are collected under
+ * the method "OTHER", so arbitrary method names sent by clients cannot create new endpoints.
+ */
+public final class ServerMetrics {
+
+    public enum Phase {
+        Auth, Parse, Handler, Write
+    };
+
+    private static final Set<String> KNOWN_METHODS = createKnownMethods();
+    static final String OTHER_METHOD = "OTHER";
+    static final String UNMATCHED_ROUTE = "unmatched";
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+    private static final int MAX_STATUS = 600;
+    private final Map<String, Map<String, Endpoint>> endpoints = new ConcurrentHashMap<>();
+    private final LongAdder inFlight = new LongAdder();
+
+    public static ServerMetrics create() {
+        return new ServerMetrics();
+    }
+
+    private static Set<String> createKnownMethods() {
+        Set<String> result = new HashSet<>();
+        for (Request.Method method : Request.Method.values()) {
+            result.add(method.name().toUpperCase(Locale.ROOT));
+        }
+
+        return result;
+    }
+
+    private ServerMetrics() {
+    }
+
+    public long getInFlight() {
+        return inFlight.sum();
+    }
+
+    public List<EndpointSnapshot> snapshot() {
+        List<EndpointSnapshot> result = new ArrayList<>();
+        for (Map<String, Endpoint> routes : endpoints.values()) {
+            for (Endpoint endpoint : routes.values()) {
+                result.add(endpoint.snapshot());
+            }
+        }
+
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Returns the metrics in the Prometheus text exposition format.
+     *
+     * @return metrics as text
+     */
+    public String toText() {
+        StringBuilder result = new StringBuilder();
+        result.append("# TYPE http_requests_in_flight gauge\n");
+        result.append("http_requests_in_flight ").append(getInFlight()).append('\n');
+        List<EndpointSnapshot> snapshot = snapshot();
+        result.append("# TYPE http_requests_total counter\n");
+        for (EndpointSnapshot endpoint : snapshot) {
+            for (Map.Entry<Integer, Long> entry : endpoint.getStatusCounts().entrySet()) {
+                result.append("http_requests_total{");
+                appendLabels(result, endpoint);
+                result.append(",status=\"").append(entry.getKey()).append("\"} ");
+                result.append(entry.getValue()).append('\n');
+            }
+        }
+
+        result.append("# TYPE http_request_duration_seconds summary\n");
+        for (EndpointSnapshot endpoint : snapshot) {
+            for (Phase phase : Phase.values()) {
+                for (double quantile : QUANTILES) {
+                    result.append("http_request_duration_seconds{");
+                    appendLabels(result, endpoint);
+                    result.append(",phase=\"").append(phase.name().toLowerCase(Locale.ROOT));
+                    result.append("\",quantile=\"").append(quantile).append("\"} ");
+                    result.append(seconds(endpoint.getPercentileNanos(phase, quantile))).append('\n');
+                }
+
+                result.append("http_request_duration_seconds_sum{");
+                appendLabels(result, endpoint);
+                result.append(",phase=\"").append(phase.name().toLowerCase(Locale.ROOT)).append("\"} ");
+                result.append(seconds(endpoint.getSumNanos(phase))).append('\n');
+                result.append("http_request_duration_seconds_count{");
+                appendLabels(result, endpoint);
+                result.append(",phase=\"").append(phase.name().toLowerCase(Locale.ROOT)).append("\"} ");
+                result.append(endpoint.getCount()).append('\n');
+            }
+        }
+
+        return result.toString();
+    }
+
+    void record(String method, String route, int status, long[] phaseNanos) {
+        if (route == null) {
+            route = UNMATCHED_ROUTE;
+        }
+
+        String knownMethod = KNOWN_METHODS.contains(method) ? method : OTHER_METHOD;
+        Map<String, Endpoint> routes = endpoints.get(knownMethod);
+        if (routes == null) {
+            routes = endpoints.computeIfAbsent(knownMethod, key -> new ConcurrentHashMap<>());
+        }
+
+        Endpoint endpoint = routes.get(route);
+        if (endpoint == null) {
+            String finalRoute = route;
+            endpoint = routes.computeIfAbsent(route, key -> new Endpoint(knownMethod, finalRoute));
+        }
+
+        endpoint.record(status, phaseNanos);
+    }
+
+    void requestFinished() {
+        inFlight.decrement();
+    }
+
+    void requestStarted() {
+        inFlight.increment();
+    }
+
+    private static void appendLabels(StringBuilder result, EndpointSnapshot endpoint) {
+        result.append("method=\"").append(endpoint.getMethod());
+        result.append("\",route=\"").append(escape(endpoint.getRoute())).append('"');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+
+    private static final class Endpoint {
+
+        private final String method;
+        private final Histogram[] phases = new Histogram[Phase.values().length];
+        private final String route;
+        private final AtomicLongArray statusCounts = new AtomicLongArray(MAX_STATUS);
+
+        Endpoint(String method, String route) {
+            this.method = method;
+            this.route = route;
+            for (int i = 0; i < phases.length; ++i) {
+                phases[i] = new Histogram();
+            }
+        }
+
+        void record(int status, long[] phaseNanos) {
+            if (0 <= status && status < MAX_STATUS) {
+                statusCounts.incrementAndGet(status);
+            }
+
+            for (int i = 0; i < phases.length; ++i) {
+                phases[i].record(phaseNanos[i]);
+            }
+        }
+
+        EndpointSnapshot snapshot() {
+            Histogram.Snapshot[] phaseSnapshots = new Histogram.Snapshot[phases.length];
+            for (int i = 0; i < phases.length; ++i) {
+                phaseSnapshots[i] = phases[i].snapshot();
+            }
+
+            long[] statusCopy = new long[MAX_STATUS];
+            for (int i = 0; i < MAX_STATUS; ++i) {
+                statusCopy[i] = statusCounts.get(i);
+            }
+
+            return new EndpointSnapshot(method, route, phaseSnapshots, statusCopy);
+        }
+    }
+}
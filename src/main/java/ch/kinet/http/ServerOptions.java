@@ -0,0 +1,546 @@
+/*
+ * Copyright (C) 2026 by Sebastian Forster, Stefan Rothe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY); without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.kinet.http;
+
+import ch.kinet.HttpClient;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.net.ssl.SSLContext;
+
+/**
+ * Configuration of the HTTP server. Instances are created with a builder:
+ *
+ * <pre>
+ * ServerOptions options = ServerOptions.builder(8080).workerThreads(64).maxConcurrentRequests(200).build();
+ * </pre>
+ */
+public final class ServerOptions {
+
+    private static final String ACCESS_CONTROL_ALLOW_ORIGIN = "Access-Control-Allow-Origin";
+    private static final String CONTENT_SECURITY_POLICY = "Content-Security-Policy";
+    private static final String DEFAULT_BIND_ADDRESS = "localhost";
+    private static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+    private static final long DEFAULT_MAX_BODY_SIZE = 16 * 1024 * 1024;
+    private static final long DEFAULT_UPLOAD_MEMORY_THRESHOLD = 1024 * 1024;
+    private final String bindAddress;
+    private final int bufferSize;
+    private final Map<String, String> defaultHeaders;
+    private final boolean directBuffers;
+    private final boolean http2;
+    private final boolean httpEnabled;
+    private final int httpsPort;
+    private final int ioThreads;
+    private final long maxBodySize;
+    private final int maxConcurrentRequests;
+    private final ServerMetrics metrics;
+    private final String metricsPath;
+    private final int port;
+    private final boolean proxyAddressForwarding;
+    private final int queueLimit;
+    private final int rateLimitBurst;
+    private final double rateLimitPerSecond;
+    private final ResponseCache responseCache;
+    private final SSLContext sslContext;
+    private final long traceThresholdMillis;
+    private final long uploadMemoryThreshold;
+    private final int workerThreads;
+
+    public static Builder builder(int port) {
+        return new Builder(port);
+    }
+
+    private ServerOptions(Builder builder) {
+        this.bindAddress = builder.bindAddress;
+        this.bufferSize = builder.bufferSize;
+        this.defaultHeaders = Collections.unmodifiableMap(new LinkedHashMap<>(builder.defaultHeaders));
+        this.directBuffers = builder.directBuffers;
+        this.http2 = builder.http2;
+        this.httpEnabled = builder.httpEnabled;
+        this.httpsPort = builder.httpsPort;
+        this.ioThreads = builder.ioThreads;
+        this.maxBodySize = builder.maxBodySize;
+        this.maxConcurrentRequests = builder.maxConcurrentRequests;
+        this.metrics = builder.metrics;
+        this.metricsPath = builder.metricsPath;
+        this.port = builder.port;
+        this.proxyAddressForwarding = builder.proxyAddressForwarding;
+        this.queueLimit = builder.queueLimit;
+        this.rateLimitBurst = builder.rateLimitBurst;
+        this.rateLimitPerSecond = builder.rateLimitPerSecond;
+        this.responseCache = builder.responseCache;
+        this.sslContext = builder.sslContext;
+        this.traceThresholdMillis = builder.traceThresholdMillis;
+        this.uploadMemoryThreshold = builder.uploadMemoryThreshold;
+        this.workerThreads = builder.workerThreads;
+    }
+
+    public String getBindAddress() {
+        return bindAddress;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Returns the headers which are added to every response, e.g. the CORS and content security policies.
+     *
+     * @return default headers by name
+     */
+    public Map<String, String> getDefaultHeaders() {
+        return defaultHeaders;
+    }
+
+    public int getHttpsPort() {
+        return httpsPort;
+    }
+
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    /**
+     * Returns the maximum size in bytes of request bodies. Larger requests are rejected with 413 Payload Too Large. The
+     * limit applies to JSON, text, binary and multipart bodies. Binary bodies are streamed to the handler, so a body
+     * without a content length only fails when the handler reads beyond the limit.
+     *
+     * @return maximum body size
+     */
+    public long getMaxBodySize() {
+        return maxBodySize;
+    }
+
+    /**
+     * Returns the maximum number of requests processed at the same time. Zero means no limit.
+     *
+     * @return maximum number of concurrent requests
+     */
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the path under which the metrics are published in text format or null if they are not published. The
+     * metrics endpoint does not require authorisation.
+     *
+     * @return metrics path or null
+     */
+    public String getMetricsPath() {
+        return metricsPath;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Returns the number of requests which may wait for processing when the concurrency limit is reached. Further
+     * requests are rejected with 503 Service Unavailable. Zero means no limit.
+     *
+     * @return maximum queue length
+     */
+    public int getQueueLimit() {
+        return queueLimit;
+    }
+
+    public int getRateLimitBurst() {
+        return rateLimitBurst;
+    }
+
+    /**
+     * Returns the number of requests per second a single client may send on average. Clients are identified by the
+     * authorisation object for requests with a valid bearer token and by their IP address otherwise. Failed
+     * authorisations count against the IP address. Zero means no limit.
+     *
+     * @return requests per second per client
+     */
+    public double getRateLimitPerSecond() {
+        return rateLimitPerSecond;
+    }
+
+    /**
+     * Returns the SSL context of the HTTPS listener or null if no HTTPS listener is configured.
+     *
+     * @return SSL context or null
+     */
+    public SSLContext getSslContext() {
+        return sslContext;
+    }
+
+    /**
+     * Returns the response cache or null if responses are not cached.
+     *
+     * @return response cache or null
+     */
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * Returns the duration in milliseconds above which the trace of a request is reported or 0 if traces are not
+     * reported.
+     *
+     * @return trace threshold in milliseconds
+     */
+    public long getTraceThresholdMillis() {
+        return traceThresholdMillis;
+    }
+
+    /**
+     * Returns the size in bytes above which files uploaded as multipart form data are stored in a temporary file
+     * instead of memory.
+     *
+     * @return upload memory threshold
+     */
+    public long getUploadMemoryThreshold() {
+        return uploadMemoryThreshold;
+    }
+
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    public boolean isDirectBuffers() {
+        return directBuffers;
+    }
+
+    /**
+     * Returns true if HTTP/2 is enabled. Over HTTPS, HTTP/2 is negotiated with ALPN, over plain HTTP clients may
+     * upgrade with h2c.
+     *
+     * @return true if HTTP/2 is enabled
+     */
+    public boolean isHttp2() {
+        return http2;
+    }
+
+    public boolean isHttpEnabled() {
+        return httpEnabled;
+    }
+
+    /**
+     * Returns true if the client address is taken from the X-Forwarded-For header of a reverse proxy.
+     *
+     * @return true if proxy address forwarding is enabled
+     */
+    public boolean isProxyAddressForwarding() {
+        return proxyAddressForwarding;
+    }
+
+    public static final class Builder {
+
+        private String bindAddress = DEFAULT_BIND_ADDRESS;
+        private int bufferSize = DEFAULT_BUFFER_SIZE;
+        private final Map<String, String> defaultHeaders = createDefaultHeaders();
+        private boolean directBuffers = true;
+        private boolean http2;
+        private boolean httpEnabled = true;
+        private int httpsPort;
+        private int ioThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        private long maxBodySize = DEFAULT_MAX_BODY_SIZE;
+        private int maxConcurrentRequests;
+        private ServerMetrics metrics;
+        private String metricsPath;
+        private final int port;
+        private boolean proxyAddressForwarding;
+        private int queueLimit;
+        private int rateLimitBurst;
+        private double rateLimitPerSecond;
+        private ResponseCache responseCache;
+        private SSLContext sslContext;
+        private long traceThresholdMillis;
+        private long uploadMemoryThreshold = DEFAULT_UPLOAD_MEMORY_THRESHOLD;
+        private int workerThreads = -1;
+
+        private Builder(int port) {
+            this.port = validPort(port);
+        }
+
+        public Builder bindAddress(String bindAddress) {
+            if (bindAddress == null) {
+                throw new NullPointerException("bindAddress");
+            }
+
+            this.bindAddress = bindAddress;
+            return this;
+        }
+
+        public Builder bufferSize(int bufferSize) {
+            this.bufferSize = positive(bufferSize, "bufferSize");
+            return this;
+        }
+
+        /**
+         * Sets the origin allowed to access the server from a browser. Defaults to "*".
+         *
+         * @param origin the allowed origin
+         * @return this builder
+         */
+        public Builder corsAllowOrigin(String origin) {
+            return defaultHeader(ACCESS_CONTROL_ALLOW_ORIGIN, origin);
+        }
+
+        public Builder contentSecurityPolicy(String policy) {
+            return defaultHeader(CONTENT_SECURITY_POLICY, policy);
+        }
+
+        /**
+         * Sets a header which is added to every response. A null value removes the header.
+         *
+         * @param name the header name
+         * @param value the header value or null
+         * @return this builder
+         */
+        public Builder defaultHeader(String name, String value) {
+            if (name == null) {
+                throw new NullPointerException("name");
+            }
+
+            if (value == null) {
+                defaultHeaders.remove(name);
+            }
+            else {
+                defaultHeaders.put(name, value);
+            }
+
+            return this;
+        }
+
+        public Builder directBuffers(boolean directBuffers) {
+            this.directBuffers = directBuffers;
+            return this;
+        }
+
+        public Builder http2(boolean http2) {
+            this.http2 = http2;
+            return this;
+        }
+
+        /**
+         * Enables or disables the plain HTTP listener on the port passed to the builder. It is enabled by default.
+         *
+         * @param httpEnabled true to enable the plain HTTP listener
+         * @return this builder
+         */
+        public Builder httpEnabled(boolean httpEnabled) {
+            this.httpEnabled = httpEnabled;
+            return this;
+        }
+
+        /**
+         * Adds an HTTPS listener using the specified SSL context.
+         *
+         * @param port the HTTPS port
+         * @param sslContext the SSL context
+         * @return this builder
+         */
+        public Builder https(int port, SSLContext sslContext) {
+            if (sslContext == null) {
+                throw new NullPointerException("sslContext");
+            }
+
+            this.httpsPort = validPort(port);
+            this.sslContext = sslContext;
+            return this;
+        }
+
+        /**
+         * Adds an HTTPS listener using the key from a PKCS12 key store.
+         *
+         * @param port the HTTPS port
+         * @param keyStorePath path of the key store
+         * @param keyStorePassword password of the key store
+         * @param keyPassword password of the key
+         * @return this builder
+         */
+        public Builder httpsPKCS12(int port, String keyStorePath, char[] keyStorePassword, char[] keyPassword) {
+            return https(port, HttpClient.createSSLContext("TLS", null, "PKCS12", keyStorePath, keyStorePassword,
+                                                           keyPassword, null, null));
+        }
+
+        public Builder ioThreads(int ioThreads) {
+            this.ioThreads = positive(ioThreads, "ioThreads");
+            return this;
+        }
+
+        public Builder maxBodySize(long maxBodySize) {
+            if (maxBodySize <= 0) {
+                throw new IllegalArgumentException("Parameter 'maxBodySize' must be positive.");
+            }
+
+            this.maxBodySize = maxBodySize;
+            return this;
+        }
+
+        public Builder maxConcurrentRequests(int maxConcurrentRequests) {
+            this.maxConcurrentRequests = notNegative(maxConcurrentRequests, "maxConcurrentRequests");
+            return this;
+        }
+
+        /**
+         * Sets the metrics instance the server records to. Defaults to a new instance.
+         *
+         * @param metrics the metrics
+         * @return this builder
+         */
+        public Builder metrics(ServerMetrics metrics) {
+            if (metrics == null) {
+                throw new NullPointerException("metrics");
+            }
+
+            this.metrics = metrics;
+            return this;
+        }
+
+        public Builder metricsPath(String metricsPath) {
+            this.metricsPath = metricsPath;
+            return this;
+        }
+
+        /**
+         * Takes the client address from the X-Forwarded-For header, e.g. for rate limiting. Only enable this if the
+         * server is reachable through a reverse proxy only, otherwise clients can choose their address.
+         *
+         * @param proxyAddressForwarding true to use the forwarded client address
+         * @return this builder
+         */
+        public Builder proxyAddressForwarding(boolean proxyAddressForwarding) {
+            this.proxyAddressForwarding = proxyAddressForwarding;
+            return this;
+        }
+
+        public Builder queueLimit(int queueLimit) {
+            this.queueLimit = notNegative(queueLimit, "queueLimit");
+            return this;
+        }
+
+        /**
+         * Limits the requests per client. Excess requests are answered with 429 Too Many Requests.
+         *
+         * @param perSecond average number of requests per second
+         * @param burst number of requests which may be sent at once
+         * @return this builder
+         */
+        public Builder rateLimit(double perSecond, int burst) {
+            if (perSecond <= 0) {
+                throw new IllegalArgumentException("Parameter 'perSecond' must be positive.");
+            }
+
+            this.rateLimitBurst = positive(burst, "burst");
+            this.rateLimitPerSecond = perSecond;
+            return this;
+        }
+
+        public Builder responseCache(ResponseCache responseCache) {
+            this.responseCache = responseCache;
+            return this;
+        }
+
+        /**
+         * Reports the trace of requests taking at least the specified time to
+         * {@link ServerImplementation#requestTraced(ch.kinet.Trace)}. Pass 0 to disable tracing, which is the default.
+         *
+         * @param traceThresholdMillis threshold in milliseconds
+         * @return this builder
+         */
+        public Builder traceThreshold(long traceThresholdMillis) {
+            if (traceThresholdMillis < 0) {
+                throw new IllegalArgumentException("Parameter 'traceThresholdMillis' must not be negative.");
+            }
+
+            this.traceThresholdMillis = traceThresholdMillis;
+            return this;
+        }
+
+        public Builder uploadMemoryThreshold(long uploadMemoryThreshold) {
+            if (uploadMemoryThreshold < 0) {
+                throw new IllegalArgumentException("Parameter 'uploadMemoryThreshold' must not be negative.");
+            }
+
+            this.uploadMemoryThreshold = uploadMemoryThreshold;
+            return this;
+        }
+
+        /**
+         * Sets the number of worker threads. Defaults to eight threads per IO thread.
+         *
+         * @param workerThreads number of worker threads
+         * @return this builder
+         */
+        public Builder workerThreads(int workerThreads) {
+            this.workerThreads = positive(workerThreads, "workerThreads");
+            return this;
+        }
+
+        public ServerOptions build() {
+            if (workerThreads < 0) {
+                workerThreads = ioThreads * 8;
+            }
+
+            if (metrics == null) {
+                metrics = ServerMetrics.create();
+            }
+
+            if (!httpEnabled && sslContext == null) {
+                throw new IllegalStateException("No listener configured.");
+            }
+
+            return new ServerOptions(this);
+        }
+
+        private static Map<String, String> createDefaultHeaders() {
+            Map<String, String> result = new LinkedHashMap<>();
+            result.put("Access-Control-Allow-Headers", "Authorization,Content-Type");
+            result.put("Access-Control-Allow-Methods", "DELETE,GET,PATCH,POST,PUT");
+            result.put(ACCESS_CONTROL_ALLOW_ORIGIN, "*");
+            result.put("Access-Control-Expose-Headers", "Content-Disposition");
+            result.put("Access-Control-Max-Age", "0");
+            result.put(CONTENT_SECURITY_POLICY, "base-uri 'none'; connect-src 'none'; default-src 'none'; form-action 'none'; frame-ancestors 'none'; script-src 'none'");
+            result.put("Strict-Transport-Security", "max-age=15552000; includeSubDomains; preload");
+            return result;
+        }
+
+        private static int validPort(int port) {
+            if (port < 0 || port > 65535) {
+                throw new IllegalArgumentException("Invalid port " + port + ".");
+            }
+
+            return port;
+        }
+
+        private static int notNegative(int value, String name) {
+            if (value < 0) {
+                throw new IllegalArgumentException("Parameter '" + name + "' must not be negative.");
+            }
+
+            return value;
+        }
+
+        private static int positive(int value, String name) {
+            if (value <= 0) {
+                throw new IllegalArgumentException("Parameter '" + name + "' must be positive.");
+            }
+
+            return value;
+        }
+    }
+}
@@ -21,11 +21,16 @@ public final class Status {
     public static final int OK = 200;
     public static final int CREATED = 201;
     public static final int NO_CONTENT = 204;
+    public static final int PARTIAL_CONTENT = 206;
+    public static final int NOT_MODIFIED = 304;
     public static final int INTERNAL_SERVER_ERROR = 500;
     public static final int BAD_REQUEST = 400;
     public static final int UNAUTHORIZED = 401;
     public static final int FORBIDDEN = 403;
     public static final int NOT_FOUND = 404;
     public static final int METHOD_NOT_ALLOWED = 405;
+    public static final int PAYLOAD_TOO_LARGE = 413;
     public static final int UNSUPPORTED_MEDIA_TYPE = 415;
+    public static final int RANGE_NOT_SATISFIABLE = 416;
+    public static final int TOO_MANY_REQUESTS = 429;
 }
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2026 by Sebastian Forster, Stefan Rothe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY); without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.kinet.http;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of authorisation results of verified bearer tokens. Tokens are identified by their SHA-256 hash. An
+ * entry expires at the expiration time of its token, but at the latest after the maximum time to live, so changes of
+ * the authorisation are picked up eventually.
+ *
+ * @param <T> type of the authorisation
+ */
+final class TokenCache<T> {
+
+    private final int capacity;
+    private final Map<String, CachedAuthorisation<T>> entries;
+    private final long maxTimeToLiveMillis;
+
+    TokenCache(int capacity, long maxTimeToLiveMillis) {
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedAuthorisation<T>> eldest) {
+                return size() > TokenCache.this.capacity;
+            }
+        };
+        this.maxTimeToLiveMillis = maxTimeToLiveMillis;
+    }
+
+    T get(String token) {
+        String key = hash(token);
+        if (key == null) {
+            return null;
+        }
+
+        synchronized (entries) {
+            CachedAuthorisation<T> entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+
+            if (entry.expiresAt <= System.currentTimeMillis()) {
+                entries.remove(key);
+                return null;
+            }
+
+            return entry.authorisation;
+        }
+    }
+
+    void put(String token, T authorisation, Date expiration) {
+        String key = hash(token);
+        if (key == null || authorisation == null) {
+            return;
+        }
+
+        long expiresAt = System.currentTimeMillis() + maxTimeToLiveMillis;
+        if (expiration != null) {
+            expiresAt = Math.min(expiresAt, expiration.getTime());
+        }
+
+        synchronized (entries) {
+            entries.put(key, new CachedAuthorisation<>(authorisation, expiresAt));
+        }
+    }
+
+    private static String hash(String token) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(sha.digest(token.getBytes(StandardCharsets.US_ASCII)));
+        }
+        catch (NoSuchAlgorithmException ex) {
+            return null;
+        }
+    }
+
+    private static final class CachedAuthorisation<T> {
+
+        private final T authorisation;
+        private final long expiresAt;
+
+        CachedAuthorisation(T authorisation, long expiresAt) {
+            this.authorisation = authorisation;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -16,6 +16,7 @@
  */
 package ch.kinet.ldaptive;
 
+import ch.kinet.Trace;
 import java.time.Duration;
 import java.util.stream.Stream;
 import org.ldaptive.AddOperation;
@@ -57,6 +58,7 @@ public class ActiveDirectory {
     }
 
     public void add(AdObject object) {
+        Trace.Span span = Trace.span("ldap add", object.getDn());
         try {
             AddRequest request = new AddRequest(object.getDn(), object.attributes());
             AddOperation operation = new AddOperation(connectionFactory);
@@ -69,9 +71,13 @@ public class ActiveDirectory {
         catch (LdapException ex) {
             throw new RuntimeException("Error while adding ad object " + object.toString() + ".", ex);
         }
+        finally {
+            span.close();
+        }
     }
 
     public void delete(String dn) {
+        Trace.Span span = Trace.span("ldap delete", dn);
         try {
             DeleteRequest request = new DeleteRequest(dn);
             DeleteOperation operation = new DeleteOperation(connectionFactory);
@@ -84,9 +90,13 @@ public class ActiveDirectory {
         catch (LdapException ex) {
             throw new RuntimeException(ex);
         }
+        finally {
+            span.close();
+        }
     }
 
     public void modify(AdObject object) {
+        Trace.Span span = Trace.span("ldap modify", object.getDn());
         try {
             ModifyRequest request = new ModifyRequest(object.getDn(), object.modifications());
             ModifyOperation operation = new ModifyOperation(connectionFactory);
@@ -99,6 +109,9 @@ public class ActiveDirectory {
         catch (LdapException ex) {
             throw new RuntimeException("Error while modifying ad object " + object.toString() + ".", ex);
         }
+        finally {
+            span.close();
+        }
     }
 
     public Stream<AdObject> search(String base, String filter, String[] attributes) {
@@ -109,6 +122,7 @@ public class ActiveDirectory {
         request.setBaseDn(base);
         request.setFilter(filter);
         request.setReturnAttributes(attributes);
+        Trace.Span span = Trace.span("ldap search", filter);
         try {
             SearchResponse response = client.executeToCompletion(request);
             return response.getEntries().stream().map(entry -> new AdObject(entry));
@@ -116,6 +130,9 @@ public class ActiveDirectory {
         catch (LdapException ex) {
             throw new RuntimeException(ex);
         }
+        finally {
+            span.close();
+        }
     }
 
     public void setPassword(String dn, String newPassword) {
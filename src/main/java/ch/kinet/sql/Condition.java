@@ -95,6 +95,14 @@ public abstract class Condition {
         return new SmallerOrEqual(propertyName, value);
     }
 
+    static Condition ctidRange(long startBlock, long endBlock) {
+        return new CtidRange(startBlock, endBlock);
+    }
+
+    static Condition xminGreaterOrEqual(long transactionId) {
+        return new XminGreaterOrEqual(transactionId);
+    }
+
     abstract <T> void visit(StatementBuilder<T> builder);
 
     protected Condition() {
@@ -148,6 +156,29 @@ public abstract class Condition {
         }
     }
 
+    private static class CtidRange extends Condition {
+
+        private final long endBlock;
+        private final long startBlock;
+
+        CtidRange(long startBlock, long endBlock) {
+            this.endBlock = endBlock;
+            this.startBlock = startBlock;
+        }
+
+        @Override
+        <T> void visit(StatementBuilder<T> builder) {
+            builder.appendColumnName("ctid");
+            builder.append(" >= '(" + startBlock + ",0)'::tid");
+            // a negative end block leaves the range open, in case the page count is outdated
+            if (endBlock >= 0) {
+                builder.append(" and ");
+                builder.appendColumnName("ctid");
+                builder.append(" < '(" + endBlock + ",0)'::tid");
+            }
+        }
+    }
+
     private static class Equals extends Condition {
 
         private final String propertyName;
@@ -364,4 +395,21 @@ public abstract class Condition {
             builder.appendBoundParameter(propertyName, value);
         }
     }
+
+    private static class XminGreaterOrEqual extends Condition {
+
+        private final long transactionId;
+
+        XminGreaterOrEqual(long transactionId) {
+            this.transactionId = transactionId;
+        }
+
+        @Override
+        <T> void visit(StatementBuilder<T> builder) {
+            builder.appendColumnName(Watermark.XMIN);
+            builder.append(Watermark.XMIN_CAST);
+            builder.append(" >= ");
+            builder.append(String.valueOf(transactionId));
+        }
+    }
 }
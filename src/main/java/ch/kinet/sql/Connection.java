@@ -16,37 +16,92 @@
  */
 package ch.kinet.sql;
 
+import ch.kinet.Trace;
 import ch.kinet.reflect.MetaObject;
 import ch.kinet.reflect.Property;
 import java.sql.Array;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public final class Connection {
 
+    private static final long INITIAL_RECONNECT_DELAY_MILLIS = 250;
+    private static final long MAX_RECONNECT_DELAY_MILLIS = 30000;
     private static final String SEQUENCE_SELECT_SQL =
         "select nextval(?)";
+    private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+    private static final int DEFAULT_MAX_POOL_SIZE = 8;
+    private static final Duration DEFAULT_WATERMARK_OVERLAP = Duration.ofMinutes(5);
+    private final ConnectionHealth.Recorder health;
+    private final Deque<java.sql.Connection> idleConnections;
     private final Map<Class<?>, Lookup<?>> lookupMap;
     private final Object sequenceSelectStatementLock;
-    private java.sql.Connection connection;
+    private final Map<Watermark.Key, Watermark> watermarkMap;
+    private final Object reconnectLock;
+    private final Object watermarkLock;
+    private volatile java.sql.Connection connection;
+    private DbSpec.Dbms dbms;
+    private ScheduledExecutorService healthProbe;
+    private int maxPoolSize;
+    private int maxReconnectAttempts;
     private PreparedStatement sequenceSelectStatement;
+    private DbSpec spec;
     private String user;
+    private Duration watermarkOverlap;
 
     public Connection() {
+        health = new ConnectionHealth.Recorder();
+        idleConnections = new ArrayDeque<>();
         lookupMap = new HashMap<>();
+        maxPoolSize = DEFAULT_MAX_POOL_SIZE;
+        maxReconnectAttempts = 8;
+        reconnectLock = new Object();
         sequenceSelectStatementLock = new Object();
+        watermarkMap = new HashMap<>();
+        watermarkLock = new Object();
+        watermarkOverlap = DEFAULT_WATERMARK_OVERLAP;
+    }
+
+    /**
+     * Creates a worker connection on a pooled JDBC connection. The worker shares the lookups of the parent connection.
+     * It never reconnects, broken pooled connections are discarded instead.
+     */
+    private Connection(Connection parent, java.sql.Connection connection) {
+        this.connection = connection;
+        this.dbms = parent.dbms;
+        this.health = new ConnectionHealth.Recorder();
+        this.idleConnections = new ArrayDeque<>();
+        this.lookupMap = parent.lookupMap;
+        this.maxPoolSize = 0;
+        this.maxReconnectAttempts = 0;
+        this.reconnectLock = new Object();
+        this.sequenceSelectStatementLock = new Object();
+        this.user = parent.user;
+        this.watermarkMap = new HashMap<>();
+        this.watermarkLock = new Object();
+        this.watermarkOverlap = parent.watermarkOverlap;
     }
 
     public void addLookup(Class<?> targetClass) {
@@ -62,6 +117,7 @@ public final class Connection {
     }
 
     public void close() {
+        stopHealthProbe();
         if (connection == null) {
             return;
         }
@@ -74,10 +130,20 @@ public final class Connection {
         catch (final SQLException ex) {
             // ignore
         }
+
+        synchronized (idleConnections) {
+            for (java.sql.Connection idle : idleConnections) {
+                closeQuietly(idle);
+            }
+
+            idleConnections.clear();
+        }
     }
 
     public void connect(DbSpec spec) {
+        this.spec = spec;
         user = spec.getUserName();
+        dbms = spec.getDbms();
         connection = Connector.connect(spec);
         sequenceSelectStatement = prepareStatement(SEQUENCE_SELECT_SQL);
         connected();
@@ -114,6 +180,62 @@ public final class Connection {
         DeleteStatement.execute(this, schemaName, targetClass, null);
     }
 
+    /**
+     * Deletes the specified objects by their key properties. The objects must all be of the same class. The deletes
+     * are sent in JDBC batches. The objects are removed from the lookup of their class.
+     *
+     * @param <T> type of the objects
+     * @param schemaName name of the database schema
+     * @param objects objects to delete
+     */
+    public <T> void deleteAll(String schemaName, Collection<T> objects) {
+        Class<T> targetClass = commonClass(objects);
+        if (targetClass == null) {
+            return;
+        }
+
+        DeleteStatement.executeByKey(this, schemaName, targetClass, objects);
+        evict(targetClass, objects);
+    }
+
+    /**
+     * Deletes the specified objects by their key property and returns the objects which actually have been deleted.
+     * The objects must all be of the same class, which must have exactly one key property. The objects are removed
+     * from the lookup of their class. This method is only supported by PostgreSQL.
+     *
+     * @param <T> type of the objects
+     * @param schemaName name of the database schema
+     * @param objects objects to delete
+     * @return list of objects whose rows have been deleted
+     */
+    public <T> List<T> deleteAllReturning(String schemaName, Collection<T> objects) {
+        if (dbms != DbSpec.Dbms.Postgresql) {
+            throw new UnsupportedDbmsException(dbms, "delete returning");
+        }
+
+        Class<T> targetClass = commonClass(objects);
+        if (targetClass == null) {
+            return new ArrayList<>();
+        }
+
+        if (MetaObject.forClass(targetClass).keyProperty() == null) {
+            throw new SingleKeyRequiredException(targetClass);
+        }
+
+        List<T> result = DeleteStatement.executeReturning(this, schemaName, targetClass, objects);
+        evict(targetClass, result);
+        return result;
+    }
+
+    /**
+     * Returns the results of the health probe and the number of reconnects so far.
+     *
+     * @return health snapshot
+     */
+    public ConnectionHealth getHealth() {
+        return health.snapshot();
+    }
+
     public String getUser() {
         return user;
     }
@@ -132,14 +254,19 @@ public final class Connection {
 
     public int nextId(String sequenceName) {
         try {
-            synchronized (sequenceSelectStatementLock) {
-                sequenceSelectStatement.setString(1, sequenceName);
-                sequenceSelectStatement.execute();
-                ResultSet resultSet = sequenceSelectStatement.getResultSet();
-                resultSet.next();
-                return (int) resultSet.getLong(1);
+            return doNextId(sequenceName);
+        }
+        catch (SQLException ex) {
+            if (!canReconnect() || !isConnectionFailure(ex)) {
+                throw new QuerySequenceException(sequenceName, ex);
             }
         }
+
+        // Retrying wastes at most one sequence value
+        reconnect();
+        try {
+            return doNextId(sequenceName);
+        }
         catch (SQLException ex) {
             throw new QuerySequenceException(sequenceName, ex);
         }
@@ -160,7 +287,182 @@ public final class Connection {
             throw new NullPointerException("targetClass");
         }
 
-        return SelectStatement.execute(this, schemaName, targetClass, where).stream();
+        return retrySelect(() -> SelectStatement.execute(this, schemaName, targetClass, where)).stream();
+    }
+
+    /**
+     * Selects the objects of the specified class which have changed since the last delta select for that class. The
+     * watermark property must increase with every change of a row, e.g. a modification timestamp maintained by a
+     * trigger. The watermark is remembered per schema, class and condition. The first call selects all rows. Each
+     * further call re-reads the rows within the watermark overlap (see {@link #setWatermarkOverlap(Duration)}), so
+     * changes committed late with a lower timestamp are not lost. Rows re-read unchanged are skipped if the class has
+     * key properties. Objects already present in a lookup are updated in place. Deleted rows are not detected.
+     *
+     * @param <T> type of the objects
+     * @param schemaName name of the database schema
+     * @param targetClass class of the objects
+     * @param watermarkPropertyName name of the watermark property
+     * @param where additional condition, may be null
+     * @return stream of changed objects
+     */
+    public <T> Stream<T> selectChanged(String schemaName, Class<T> targetClass, String watermarkPropertyName,
+                                       Condition where) {
+        if (watermarkPropertyName == null) {
+            throw new NullPointerException("watermarkPropertyName");
+        }
+
+        return doSelectChanged(schemaName, targetClass, watermarkPropertyName, where);
+    }
+
+    public <T> Stream<T> selectChanged(String schemaName, Class<T> targetClass, String watermarkPropertyName) {
+        return selectChanged(schemaName, targetClass, watermarkPropertyName, null);
+    }
+
+    /**
+     * Selects the objects of the specified class which have changed since the last delta select for that class, using
+     * the transaction id stored in the PostgreSQL system column <code>xmin</code> as watermark. No modification
+     * timestamp is needed. Each call re-reads the rows of transactions which were still running during the previous
+     * call, so no change is lost. Rows re-read unchanged are skipped if the class has key properties. The watermark
+     * must be reset with {@link #resetWatermark(Class)} after a transaction id wraparound.
+     *
+     * @param <T> type of the objects
+     * @param schemaName name of the database schema
+     * @param targetClass class of the objects
+     * @param where additional condition, may be null
+     * @return stream of changed objects
+     */
+    public <T> Stream<T> selectChangedByXmin(String schemaName, Class<T> targetClass, Condition where) {
+        return doSelectChanged(schemaName, targetClass, null, where);
+    }
+
+    /**
+     * Resets the watermarks of all delta selects of the specified class, so the next delta select selects all rows.
+     *
+     * @param targetClass class of the objects
+     */
+    public void resetWatermark(Class<?> targetClass) {
+        synchronized (watermarkLock) {
+            watermarkMap.keySet().removeIf(key -> key.isFor(targetClass));
+        }
+    }
+
+    /**
+     * Selects objects like {@link #select(String, Class, Condition)}, but also fetches the objects referenced by the
+     * specified lookup properties with a left join in the same query. The referenced objects are added to or updated
+     * in their lookups, so they are resolved even if they have not been loaded before.
+     *
+     * @param <T> type of the objects
+     * @param schemaName name of the database schema, also used for the referenced tables
+     * @param targetClass class of the objects
+     * @param where condition, may be null
+     * @param joinPropertyNames names of the properties referencing lookup classes
+     * @return stream of objects
+     */
+    public <T> Stream<T> selectJoined(String schemaName, Class<T> targetClass, Condition where,
+                                      String... joinPropertyNames) {
+        if (targetClass == null) {
+            throw new NullPointerException("targetClass");
+        }
+
+        List<String> joins = Arrays.asList(joinPropertyNames);
+        return retrySelect(() -> SelectStatement.execute(this, schemaName, targetClass, where, joins)).stream();
+    }
+
+    /**
+     * Selects objects like {@link #select(String, Class, Condition)}, but splits the table into partitions which are
+     * selected in parallel on separate pooled connections. On PostgreSQL the table is split into ranges of physical
+     * blocks, all partitions reading the same snapshot. Otherwise the table is split into ranges of the key property,
+     * which must be an <code>int</code> or <code>long</code>. The results are merged into the lookup of the target
+     * class by the calling thread.
+     *
+     * @param <T> type of the objects
+     * @param schemaName name of the database schema
+     * @param targetClass class of the objects
+     * @param where condition, may be null
+     * @param partitions number of partitions selected in parallel, limited by {@link #setMaxPoolSize(int)}
+     * @return stream of objects
+     */
+    public <T> Stream<T> selectParallel(String schemaName, Class<T> targetClass, Condition where, int partitions) {
+        if (targetClass == null) {
+            throw new NullPointerException("targetClass");
+        }
+
+        Trace.Span span = Trace.span("sql parallel", targetClass.getSimpleName());
+        try {
+            return retrySelect(() -> ParallelSelect.execute(this, schemaName, targetClass, where, partitions)).stream();
+        }
+        finally {
+            span.close();
+        }
+    }
+
+    /**
+     * Sets how many pooled connections a parallel select may use. The number of partitions of a parallel select is
+     * limited accordingly. At most this many idle connections are kept open for reuse.
+     *
+     * @param maxPoolSize maximum number of pooled connections
+     */
+    public void setMaxPoolSize(int maxPoolSize) {
+        if (maxPoolSize < 1) {
+            throw new IllegalArgumentException("Parameter 'maxPoolSize' must be positive.");
+        }
+
+        this.maxPoolSize = maxPoolSize;
+    }
+
+    /**
+     * Sets how many times a lost connection is reestablished before giving up. The delay between attempts starts at
+     * 250 milliseconds and doubles with each attempt up to 30 seconds.
+     *
+     * @param maxReconnectAttempts maximum number of attempts, 0 disables reconnecting
+     */
+    public void setMaxReconnectAttempts(int maxReconnectAttempts) {
+        this.maxReconnectAttempts = maxReconnectAttempts;
+    }
+
+    /**
+     * Sets how far a delta select with a timestamp watermark reaches back below the highest timestamp seen. Rows of
+     * transactions which commit later than this overlap after taking their timestamp are missed. Defaults to five
+     * minutes.
+     *
+     * @param watermarkOverlap overlap of consecutive delta selects
+     */
+    public void setWatermarkOverlap(Duration watermarkOverlap) {
+        if (watermarkOverlap == null) {
+            throw new NullPointerException("watermarkOverlap");
+        }
+
+        this.watermarkOverlap = watermarkOverlap;
+    }
+
+    /**
+     * Starts a background thread which periodically checks whether the database connection is still valid, records
+     * the round trip latency and reconnects if the connection has been lost.
+     *
+     * @param intervalSeconds seconds between two probes
+     */
+    public void startHealthProbe(long intervalSeconds) {
+        synchronized (reconnectLock) {
+            if (healthProbe != null) {
+                return;
+            }
+
+            healthProbe = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread result = new Thread(runnable, "database health probe");
+                result.setDaemon(true);
+                return result;
+            });
+            healthProbe.scheduleWithFixedDelay(this::probe, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    public void stopHealthProbe() {
+        synchronized (reconnectLock) {
+            if (healthProbe != null) {
+                healthProbe.shutdownNow();
+                healthProbe = null;
+            }
+        }
     }
 
     public <T> Stream<T> selectAll(String schemaName, Class<T> targetClass) {
@@ -239,6 +541,45 @@ public final class Connection {
     protected void connected() {
     }
 
+    java.sql.Connection acquirePooledConnection() {
+        synchronized (idleConnections) {
+            if (!idleConnections.isEmpty()) {
+                return idleConnections.pop();
+            }
+        }
+
+        return Connector.connect(spec);
+    }
+
+    Connection createWorker(java.sql.Connection pooledConnection) {
+        return new Connection(this, pooledConnection);
+    }
+
+    DbSpec.Dbms dbms() {
+        return dbms;
+    }
+
+    int maxPoolSize() {
+        return maxPoolSize;
+    }
+
+    void releasePooledConnection(java.sql.Connection pooledConnection, boolean broken) {
+        if (broken) {
+            closeQuietly(pooledConnection);
+            return;
+        }
+
+        synchronized (idleConnections) {
+            // concurrent parallel selects may open more connections than are kept for reuse
+            if (idleConnections.size() < maxPoolSize) {
+                idleConnections.push(pooledConnection);
+                return;
+            }
+        }
+
+        closeQuietly(pooledConnection);
+    }
+
     <T> boolean isLookup(Class<T> targetClass) {
         return lookupMap.containsKey(targetClass);
     }
@@ -249,6 +590,17 @@ public final class Connection {
     }
 
     java.sql.PreparedStatement prepareStatement(String sql) {
+        try {
+            return connection.prepareStatement(sql);
+        }
+        catch (SQLException ex) {
+            if (!canReconnect() || !isConnectionFailure(ex)) {
+                throw new StatementPreparationException(sql, ex);
+            }
+        }
+
+        // Nothing has been executed yet, so preparing again on a new connection is always safe
+        reconnect();
         try {
             return connection.prepareStatement(sql);
         }
@@ -257,6 +609,66 @@ public final class Connection {
         }
     }
 
+    /**
+     * Reestablishes the database connection with exponential backoff and prepares the cached statements again. Does
+     * nothing if another thread has already reconnected in the meantime.
+     */
+    void reconnect() {
+        if (!canReconnect()) {
+            throw new ConnectionFailedException(new SQLException("Connection has been lost."));
+        }
+
+        synchronized (reconnectLock) {
+            if (isValid()) {
+                return;
+            }
+
+            java.sql.Connection newConnection = null;
+            long delay = INITIAL_RECONNECT_DELAY_MILLIS;
+            for (int attempt = 1; newConnection == null; ++attempt) {
+                try {
+                    newConnection = Connector.connect(spec);
+                }
+                catch (ConnectionFailedException ex) {
+                    if (attempt >= maxReconnectAttempts) {
+                        throw ex;
+                    }
+
+                    try {
+                        Thread.sleep(delay);
+                    }
+                    catch (InterruptedException ex1) {
+                        Thread.currentThread().interrupt();
+                        throw ex;
+                    }
+
+                    delay = Math.min(2 * delay, MAX_RECONNECT_DELAY_MILLIS);
+                }
+            }
+
+            java.sql.Connection oldConnection = connection;
+            connection = newConnection;
+            if (oldConnection != null) {
+                closeQuietly(oldConnection);
+            }
+
+            synchronized (sequenceSelectStatementLock) {
+                sequenceSelectStatement = prepareStatement(SEQUENCE_SELECT_SQL);
+            }
+
+            // pooled connections have most likely been lost as well
+            synchronized (idleConnections) {
+                for (java.sql.Connection idle : idleConnections) {
+                    closeQuietly(idle);
+                }
+
+                idleConnections.clear();
+            }
+
+            health.reconnected();
+        }
+    }
+
     Array createArrayOf(Collection collection) {
         if (collection.isEmpty()) {
             return null;
@@ -278,6 +690,9 @@ public final class Connection {
         else if (element instanceof Integer) {
             type = "integer";
         }
+        else if (element instanceof Long) {
+            type = "bigint";
+        }
         else if (element == null) {
             throw new CreateArrayException(null, "Cannot determine type of null element in collection .");
         }
@@ -292,4 +707,181 @@ public final class Connection {
             throw new CreateArrayException(collection.getClass(), ex);
         }
     }
+
+    private <T> Stream<T> doSelectChanged(String schemaName, Class<T> targetClass, String watermarkPropertyName,
+                                          Condition where) {
+        if (targetClass == null) {
+            throw new NullPointerException("targetClass");
+        }
+
+        Watermark.Key key = watermarkKey(schemaName, targetClass, where);
+        Watermark watermark;
+        // the lock only guards the map, the selects of different watermarks run concurrently
+        synchronized (watermarkLock) {
+            watermark = watermarkMap.get(key);
+            if (watermark == null || !watermark.matches(watermarkPropertyName)) {
+                if (watermarkPropertyName == null) {
+                    watermark = Watermark.forXmin();
+                }
+                else {
+                    // fails early if the property does not exist
+                    MetaObject.forClass(targetClass).property(watermarkPropertyName);
+                    watermark = Watermark.forProperty(watermarkPropertyName, watermarkOverlap);
+                }
+
+                watermarkMap.put(key, watermark);
+            }
+        }
+
+        final Watermark.Window window = watermark.open();
+        return retrySelect(() -> SelectStatement.execute(this, schemaName, targetClass, where, window)).stream();
+    }
+
+    /**
+     * Identifies a delta select by schema, class and the rendered condition including its parameter values.
+     */
+    private <T> Watermark.Key watermarkKey(String schemaName, Class<T> targetClass, Condition where) {
+        StatementBuilder<T> builder = new StatementBuilder<>(this, schemaName, targetClass);
+        builder.appendWhereClause(where);
+        List<Object> values = new ArrayList<>();
+        for (Statement.BoundParameterSetter setter : builder.boundParameterSetters()) {
+            values.add(setter.value());
+        }
+
+        return Watermark.key(schemaName, targetClass, builder.sql(), values);
+    }
+
+    private static void closeQuietly(java.sql.Connection connection) {
+        try {
+            connection.close();
+        }
+        catch (SQLException ex) {
+            // ignore
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Class<T> commonClass(Collection<T> objects) {
+        if (objects == null) {
+            throw new NullPointerException("objects");
+        }
+
+        Class<T> result = null;
+        for (T object : objects) {
+            if (object == null) {
+                throw new NullPointerException("object");
+            }
+
+            if (result == null) {
+                result = (Class<T>) object.getClass();
+            }
+            else if (!result.equals(object.getClass())) {
+                throw new IllegalArgumentException("Objects must all be of the same class.");
+            }
+        }
+
+        return result;
+    }
+
+    private <T> void evict(Class<T> targetClass, Collection<T> objects) {
+        Lookup<T> lookup = lookupFor(targetClass);
+        if (lookup != null) {
+            for (T object : objects) {
+                lookup.remove(object);
+            }
+        }
+    }
+
+    private boolean canReconnect() {
+        return spec != null && maxReconnectAttempts > 0;
+    }
+
+    private int doNextId(String sequenceName) throws SQLException {
+        synchronized (sequenceSelectStatementLock) {
+            Trace.Span span = Trace.span("sql nextId", sequenceName);
+            try {
+                sequenceSelectStatement.setString(1, sequenceName);
+                sequenceSelectStatement.execute();
+                ResultSet resultSet = sequenceSelectStatement.getResultSet();
+                resultSet.next();
+                return (int) resultSet.getLong(1);
+            }
+            finally {
+                span.close();
+            }
+        }
+    }
+
+    private boolean isConnectionFailure(Throwable throwable) {
+        Throwable cause = throwable;
+        while (cause != null) {
+            if (isConnectionException(cause)) {
+                // the connection is only probed for connection errors, other errors are rethrown without a round trip
+                return !isValid();
+            }
+
+            cause = cause.getCause();
+        }
+
+        return false;
+    }
+
+    private static boolean isConnectionException(Throwable throwable) {
+        if (throwable instanceof SQLNonTransientConnectionException || throwable instanceof SQLRecoverableException ||
+            throwable instanceof SQLTransientConnectionException) {
+            return true;
+        }
+
+        if (throwable instanceof SQLException) {
+            // SQL state class 08: connection exception
+            String sqlState = ((SQLException) throwable).getSQLState();
+            return sqlState != null && sqlState.startsWith("08");
+        }
+
+        return false;
+    }
+
+    private boolean isValid() {
+        java.sql.Connection current = connection;
+        try {
+            return current != null && current.isValid(VALIDATION_TIMEOUT_SECONDS);
+        }
+        catch (SQLException ex) {
+            return false;
+        }
+    }
+
+    private void probe() {
+        long start = System.nanoTime();
+        if (isValid()) {
+            health.probeSucceeded(System.nanoTime() - start);
+            return;
+        }
+
+        health.probeFailed();
+        try {
+            reconnect();
+        }
+        catch (RuntimeException ex) {
+            // try again with the next probe
+        }
+    }
+
+    /**
+     * Executes a select and executes it once more on a new connection if the database connection has been lost.
+     * Selects are idempotent, so this is safe.
+     */
+    private <R> R retrySelect(Supplier<R> select) {
+        try {
+            return select.get();
+        }
+        catch (SqlException ex) {
+            if (!canReconnect() || !isConnectionFailure(ex)) {
+                throw ex;
+            }
+        }
+
+        reconnect();
+        return select.get();
+    }
 }
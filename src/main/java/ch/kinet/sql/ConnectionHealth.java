@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2026 by Stefan Rothe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY); without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.kinet.sql;
+
+import java.time.LocalDateTime;
+
+/**
+ * Snapshot of the health probe results and reconnect statistics of a database connection.
+ */
+public final class ConnectionHealth {
+
+    private final double averageLatencyMillis;
+    private final long failureCount;
+    private final boolean healthy;
+    private final LocalDateTime lastProbe;
+    private final double lastLatencyMillis;
+    private final double maxLatencyMillis;
+    private final long probeCount;
+    private final long reconnectCount;
+
+    private ConnectionHealth(Recorder recorder) {
+        this.averageLatencyMillis = recorder.successCount == 0 ? 0.0 :
+            recorder.totalLatencyNanos / 1e6 / recorder.successCount;
+        this.failureCount = recorder.failureCount;
+        this.healthy = recorder.healthy;
+        this.lastProbe = recorder.lastProbe;
+        this.lastLatencyMillis = recorder.lastLatencyNanos / 1e6;
+        this.maxLatencyMillis = recorder.maxLatencyNanos / 1e6;
+        this.probeCount = recorder.successCount + recorder.failureCount;
+        this.reconnectCount = recorder.reconnectCount;
+    }
+
+    public double getAverageLatencyMillis() {
+        return averageLatencyMillis;
+    }
+
+    public long getFailureCount() {
+        return failureCount;
+    }
+
+    public LocalDateTime getLastProbe() {
+        return lastProbe;
+    }
+
+    public double getLastLatencyMillis() {
+        return lastLatencyMillis;
+    }
+
+    public double getMaxLatencyMillis() {
+        return maxLatencyMillis;
+    }
+
+    public long getProbeCount() {
+        return probeCount;
+    }
+
+    public long getReconnectCount() {
+        return reconnectCount;
+    }
+
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        result.append(healthy ? "healthy" : "unhealthy");
+        result.append(", probes: ").append(probeCount);
+        result.append(", failures: ").append(failureCount);
+        result.append(", reconnects: ").append(reconnectCount);
+        result.append(", latency ms (last/avg/max): ");
+        result.append(String.format("%.2f/%.2f/%.2f", lastLatencyMillis, averageLatencyMillis, maxLatencyMillis));
+        return result.toString();
+    }
+
+    static final class Recorder {
+
+        private long failureCount;
+        private boolean healthy = true;
+        private LocalDateTime lastProbe;
+        private long lastLatencyNanos;
+        private long maxLatencyNanos;
+        private long reconnectCount;
+        private long successCount;
+        private long totalLatencyNanos;
+
+        synchronized void probeFailed() {
+            ++failureCount;
+            healthy = false;
+            lastProbe = LocalDateTime.now();
+        }
+
+        synchronized void probeSucceeded(long latencyNanos) {
+            ++successCount;
+            healthy = true;
+            lastProbe = LocalDateTime.now();
+            lastLatencyNanos = latencyNanos;
+            maxLatencyNanos = Math.max(maxLatencyNanos, latencyNanos);
+            totalLatencyNanos += latencyNanos;
+        }
+
+        synchronized void reconnected() {
+            ++reconnectCount;
+            healthy = true;
+        }
+
+        synchronized ConnectionHealth snapshot() {
+            return new ConnectionHealth(this);
+        }
+    }
+}
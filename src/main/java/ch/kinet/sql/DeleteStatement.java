@@ -16,8 +16,20 @@
  */
 package ch.kinet.sql;
 
+import ch.kinet.reflect.MetaObject;
+import ch.kinet.reflect.Property;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 class DeleteStatement<T> extends Statement<T> {
 
+    private static final int CHUNK_SIZE = 1000;
+
     static <S> void execute(Connection connection, String schemaName, Class<S> targetClass, Condition where) {
         DeleteStatement<S> statement = null;
         try {
@@ -31,19 +43,130 @@ class DeleteStatement<T> extends Statement<T> {
         }
     }
 
+    static <S> void executeByKey(Connection connection, String schemaName, Class<S> targetClass,
+                                 Collection<S> objects) {
+        DeleteStatement<S> statement = null;
+        try {
+            statement = new DeleteStatement<>(new KeyDeleteStatementBuilder<>(connection, schemaName, targetClass));
+            statement.executeBatch(objects);
+        }
+        finally {
+            if (statement != null) {
+                statement.dispose();
+            }
+        }
+    }
+
+    static <S> List<S> executeReturning(Connection connection, String schemaName, Class<S> targetClass,
+                                        Collection<S> objects) {
+        DeleteStatement<S> statement = null;
+        try {
+            statement = new DeleteStatement<>(
+                new ReturningDeleteStatementBuilder<>(connection, schemaName, targetClass));
+            return statement.executeReturning(objects);
+        }
+        finally {
+            if (statement != null) {
+                statement.dispose();
+            }
+        }
+    }
+
     private static <T> DeleteStatement<T> create(Connection connection, String schemaName, Class<T> targetClass,
                                                  Condition where) {
         return new DeleteStatement<>(new DeleteStatementBuilder<>(connection, schemaName, targetClass, where));
     }
 
-    private DeleteStatement(DeleteStatementBuilder<T> builder) {
+    private final MetaObject<T> metaObject;
+
+    private DeleteStatement(StatementBuilder<T> builder) {
         super(builder);
+        this.metaObject = builder.metaObject();
     }
 
     public void execute() {
         doExecute();
     }
 
+    private void executeBatch(Collection<T> objects) {
+        int count = 0;
+        for (T object : objects) {
+            for (Property property : metaObject.keyProperties()) {
+                setParam(property.getName(), property.getValue(object));
+            }
+
+            addBatch();
+            ++count;
+            if (count % CHUNK_SIZE == 0) {
+                doExecuteBatch();
+            }
+        }
+
+        if (count % CHUNK_SIZE != 0) {
+            doExecuteBatch();
+        }
+    }
+
+    private List<T> executeReturning(Collection<T> objects) {
+        final Property keyProperty = metaObject.keyProperty();
+        final ResultGetter keyGetter = ResultGetter.create(connection(), keyProperty);
+        final Map<Object, T> objectsByKey = new HashMap<>();
+        for (T object : objects) {
+            objectsByKey.put(keyProperty.getValue(object), object);
+        }
+
+        final List<T> result = new ArrayList<>();
+        final List<Object> chunk = new ArrayList<>();
+        for (Object key : objectsByKey.keySet()) {
+            chunk.add(key);
+            if (chunk.size() == CHUNK_SIZE) {
+                executeReturningChunk(keyProperty, keyGetter, chunk, objectsByKey, result);
+                chunk.clear();
+            }
+        }
+
+        if (!chunk.isEmpty()) {
+            executeReturningChunk(keyProperty, keyGetter, chunk, objectsByKey, result);
+        }
+
+        return result;
+    }
+
+    private void executeReturningChunk(Property keyProperty, ResultGetter keyGetter, List<Object> keys,
+                                       Map<Object, T> objectsByKey, List<T> result) {
+        try {
+            statement.setArray(1, connection().createArrayOf(keys));
+        }
+        catch (SQLException ex) {
+            throw new SetParameterException(keyProperty, ex);
+        }
+
+        doExecute();
+        ResultSet resultSet = null;
+        try {
+            resultSet = statement.getResultSet();
+            while (resultSet.next()) {
+                final T object = objectsByKey.get(keyGetter.getValue(resultSet));
+                if (object != null) {
+                    result.add(object);
+                }
+            }
+        }
+        catch (SQLException ex) {
+            throw new ResultSetException(this, ex);
+        }
+        finally {
+            try {
+                if (resultSet != null) {
+                    resultSet.close();
+                }
+            }
+            catch (SQLException ex) {
+                // ignore
+            }
+        }
+    }
+
     private static class DeleteStatementBuilder<U> extends StatementBuilder<U> {
 
         private final Condition where;
@@ -60,4 +183,44 @@ class DeleteStatement<T> extends Statement<T> {
             appendWhereClause(where);
         }
     }
+
+    private static class KeyDeleteStatementBuilder<U> extends StatementBuilder<U> {
+
+        KeyDeleteStatementBuilder(Connection connection, String schemaName, Class<U> targetClass) {
+            super(connection, schemaName, targetClass);
+            for (Property property : metaObject().keyProperties()) {
+                addPropertySetter(property);
+            }
+
+            append("delete from ");
+            appendTableName();
+            append(" where ");
+            boolean first = true;
+            for (String columnName : columnNames()) {
+                if (first) {
+                    first = false;
+                }
+                else {
+                    append(" and ");
+                }
+
+                append(columnName);
+                append(" = ?");
+            }
+        }
+    }
+
+    private static class ReturningDeleteStatementBuilder<U> extends StatementBuilder<U> {
+
+        ReturningDeleteStatementBuilder(Connection connection, String schemaName, Class<U> targetClass) {
+            super(connection, schemaName, targetClass);
+            final String columnName = ResultGetter.columnName(connection, metaObject().keyProperty());
+            append("delete from ");
+            appendTableName();
+            append(" where ");
+            append(columnName);
+            append(" = any(?) returning ");
+            append(columnName);
+        }
+    }
 }
@@ -38,6 +38,10 @@ class Lookup<T> {
         return this.lookup.get(key);
     }
 
+    void remove(T object) {
+        this.lookup.remove(this.keyPropery.getValue(object));
+    }
+
     String getKeyPropertyName() {
         return this.keyPropery.getName();
     }
@@ -0,0 +1,395 @@
+/*
+ * Copyright (C) 2026 by Stefan Rothe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY); without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.kinet.sql;
+
+import ch.kinet.Trace;
+import ch.kinet.Util;
+import ch.kinet.reflect.MetaObject;
+import ch.kinet.reflect.Property;
+import ch.kinet.reflect.PropertyValues;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Selects the rows of a table in several partitions, each running on its own pooled connection. On PostgreSQL all
+ * partitions read the same snapshot, which is exported by a coordinating transaction. Otherwise a row updated during
+ * the select could move to another ctid range and be read twice or not at all.
+ */
+class ParallelSelect {
+
+    private static final String EXPORT_SNAPSHOT_SQL = "select pg_export_snapshot()";
+    private static final int MAX_WORKER_THREADS = 16;
+    private static final String PAGE_COUNT_SQL = "select relpages from pg_class where oid = ?::regclass";
+    private static final String SET_SNAPSHOT_SQL = "set transaction snapshot '";
+    private static final ExecutorService executor = createExecutor();
+
+    static <S> List<S> execute(Connection connection, String schemaName, Class<S> targetClass, Condition where,
+                               int partitions) {
+        // The meta object registry is not thread safe, so make sure the worker threads only read from it.
+        registerMetaObjects(connection, targetClass, new HashSet<>());
+        boolean postgresql = connection.dbms() == DbSpec.Dbms.Postgresql;
+        // on PostgreSQL, one pooled connection coordinates the snapshot
+        int maxPartitions = postgresql ? connection.maxPoolSize() - 1 : connection.maxPoolSize();
+        List<Condition> partitionConditions = partitionConditions(connection, schemaName, targetClass, where,
+                                                                  Math.min(partitions, maxPartitions));
+        if (partitionConditions.size() <= 1) {
+            return SelectStatement.execute(connection, schemaName, targetClass, where);
+        }
+
+        java.sql.Connection coordinator = null;
+        List<Future<List<S>>> futures = new ArrayList<>();
+        try {
+            String snapshotId = null;
+            if (postgresql) {
+                coordinator = connection.acquirePooledConnection();
+                snapshotId = exportSnapshot(coordinator);
+            }
+
+            Trace.Span parent = Trace.currentSpan();
+            String snapshot = snapshotId;
+            for (Condition partitionCondition : partitionConditions) {
+                Condition partitionWhere = where == null ?
+                    partitionCondition : Condition.and(where, partitionCondition);
+                futures.add(executor.submit(
+                    () -> selectPartition(connection, schemaName, targetClass, partitionWhere, snapshot, parent)));
+            }
+
+            List<S> result = new ArrayList<>();
+            for (Future<List<S>> future : futures) {
+                result.addAll(future.get());
+            }
+
+            return merge(connection, targetClass, result);
+        }
+        catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+
+            throw new SqlException("Parallel select failed.", ex.getCause());
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SqlException("Parallel select interrupted.", ex);
+        }
+        finally {
+            for (Future<List<S>> future : futures) {
+                future.cancel(true);
+            }
+
+            if (coordinator != null) {
+                connection.releasePooledConnection(coordinator, !endTransaction(coordinator));
+            }
+        }
+    }
+
+    private static ExecutorService createExecutor() {
+        ThreadPoolExecutor result = new ThreadPoolExecutor(
+            MAX_WORKER_THREADS, MAX_WORKER_THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "ParallelSelect worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+        result.allowCoreThreadTimeOut(true);
+        return result;
+    }
+
+    /**
+     * Starts a repeatable read transaction and exports its snapshot. The snapshot can be imported by other
+     * transactions as long as this transaction is open.
+     */
+    private static String exportSnapshot(java.sql.Connection coordinator) {
+        try {
+            beginRepeatableRead(coordinator);
+            try (java.sql.Statement statement = coordinator.createStatement();
+                 ResultSet resultSet = statement.executeQuery(EXPORT_SNAPSHOT_SQL)) {
+                resultSet.next();
+                return resultSet.getString(1);
+            }
+        }
+        catch (SQLException ex) {
+            throw new StatementExecutionException(EXPORT_SNAPSHOT_SQL, ex);
+        }
+    }
+
+    private static void beginRepeatableRead(java.sql.Connection connection) throws SQLException {
+        connection.setAutoCommit(false);
+        connection.setTransactionIsolation(java.sql.Connection.TRANSACTION_REPEATABLE_READ);
+    }
+
+    /**
+     * Ends the read only transaction and restores the defaults of the pooled connection. Returns false if the
+     * connection is broken.
+     */
+    private static boolean endTransaction(java.sql.Connection connection) {
+        try {
+            connection.rollback();
+            connection.setTransactionIsolation(java.sql.Connection.TRANSACTION_READ_COMMITTED);
+            connection.setAutoCommit(true);
+            return true;
+        }
+        catch (SQLException ex) {
+            return false;
+        }
+    }
+
+    private static <S> List<S> selectPartition(Connection connection, String schemaName, Class<S> targetClass,
+                                               Condition where, String snapshotId, Trace.Span parent) {
+        parent.activate();
+        java.sql.Connection pooledConnection = connection.acquirePooledConnection();
+        boolean broken = true;
+        Trace.Span span = Trace.span("sql partition");
+        try {
+            if (snapshotId != null) {
+                importSnapshot(pooledConnection, snapshotId);
+            }
+
+            List<S> result = SelectStatement.executeDetached(connection.createWorker(pooledConnection), schemaName,
+                                                             targetClass, where);
+            broken = false;
+            return result;
+        }
+        finally {
+            if (snapshotId != null && !endTransaction(pooledConnection)) {
+                broken = true;
+            }
+
+            span.close();
+            connection.releasePooledConnection(pooledConnection, broken);
+            parent.deactivate();
+        }
+    }
+
+    private static void importSnapshot(java.sql.Connection connection, String snapshotId) {
+        // the snapshot id is returned by pg_export_snapshot and cannot be bound as parameter
+        String sql = SET_SNAPSHOT_SQL + snapshotId + "'";
+        try {
+            beginRepeatableRead(connection);
+            try (java.sql.Statement statement = connection.createStatement()) {
+                statement.execute(sql);
+            }
+        }
+        catch (SQLException ex) {
+            throw new StatementExecutionException(sql, ex);
+        }
+    }
+
+    private static <S> List<S> merge(Connection connection, Class<S> targetClass, List<S> objects) {
+        Lookup<S> lookup = connection.lookupFor(targetClass);
+        if (lookup == null) {
+            return objects;
+        }
+
+        MetaObject<S> metaObject = MetaObject.forClass(targetClass);
+        List<S> result = new ArrayList<>(objects.size());
+        for (S object : objects) {
+            S existing = lookup.get(metaObject.property(lookup.getKeyPropertyName()).getValue(object));
+            if (existing == null) {
+                lookup.add(object);
+                result.add(object);
+            }
+            else {
+                metaObject.updateInstance(existing, new ObjectPropertyValues(metaObject, object));
+                result.add(existing);
+            }
+        }
+
+        return result;
+    }
+
+    private static <S> List<Condition> partitionConditions(Connection connection, String schemaName,
+                                                           Class<S> targetClass, Condition where, int partitions) {
+        List<Condition> result = new ArrayList<>();
+        if (partitions <= 1) {
+            return result;
+        }
+
+        if (connection.dbms() == DbSpec.Dbms.Postgresql) {
+            long pageCount = pageCount(connection, schemaName, targetClass);
+            if (pageCount < partitions) {
+                return result;
+            }
+
+            long size = (pageCount + partitions - 1) / partitions;
+            for (int i = 0; i < partitions; ++i) {
+                result.add(Condition.ctidRange(i * size, i == partitions - 1 ? -1 : (i + 1) * size));
+            }
+
+            return result;
+        }
+
+        Property keyProperty = MetaObject.forClass(targetClass).keyProperty();
+        if (keyProperty == null) {
+            return result;
+        }
+
+        boolean isInt = Integer.TYPE.equals(keyProperty.getPropertyClass());
+        if (!isInt && !Long.TYPE.equals(keyProperty.getPropertyClass())) {
+            return result;
+        }
+
+        long[] range = KeyRangeStatement.execute(connection, schemaName, targetClass, keyProperty, where);
+        if (range == null) {
+            return result;
+        }
+
+        long size = (range[1] - range[0]) / partitions + 1;
+        for (int i = 0; i < partitions; ++i) {
+            long lower = range[0] + i * size;
+            if (lower > range[1]) {
+                break;
+            }
+
+            long upper = Math.min(range[1], lower + size - 1);
+            if (isInt) {
+                result.add(Condition.between(keyProperty.getName(), (int) lower, (int) upper));
+            }
+            else {
+                result.add(Condition.between(keyProperty.getName(), lower, upper));
+            }
+        }
+
+        return result;
+    }
+
+    private static long pageCount(Connection connection, String schemaName, Class<?> targetClass) {
+        StringBuilder tableName = new StringBuilder();
+        if (!Util.isEmpty(schemaName)) {
+            tableName.append(schemaName);
+            tableName.append(".");
+        }
+
+        tableName.append(StatementBuilder.sqlName(MetaObject.forClass(targetClass).getName()));
+        PreparedStatement statement = connection.prepareStatement(PAGE_COUNT_SQL);
+        try {
+            statement.setString(1, tableName.toString());
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getLong(1) : 0;
+            }
+        }
+        catch (SQLException ex) {
+            throw new StatementExecutionException(PAGE_COUNT_SQL, ex);
+        }
+        finally {
+            try {
+                statement.close();
+            }
+            catch (SQLException ex) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * Registers the meta objects of the specified class and of the lookup classes referenced by its persistent
+     * properties, whose key properties are looked up while rows are converted to objects.
+     */
+    private static void registerMetaObjects(Connection connection, Class<?> type, Set<Class<?>> registered) {
+        if (!registered.add(type)) {
+            return;
+        }
+
+        for (Property property : MetaObject.forClass(type).persistentProperties()) {
+            if (connection.isLookup(property.getPropertyClass())) {
+                registerMetaObjects(connection, property.getPropertyClass(), registered);
+            }
+        }
+    }
+
+    private static class ObjectPropertyValues implements PropertyValues {
+
+        private final MetaObject<?> metaObject;
+        private final Object object;
+
+        ObjectPropertyValues(MetaObject<?> metaObject, Object object) {
+            this.metaObject = metaObject;
+            this.object = object;
+        }
+
+        @Override
+        public boolean containsValue(String propertyName) {
+            return metaObject.persistentProperties().contains(metaObject.property(propertyName));
+        }
+
+        @Override
+        public Object getValue(String propertyName) {
+            return metaObject.property(propertyName).getValue(object);
+        }
+    }
+
+    private static class KeyRangeStatement<T> extends Statement<T> {
+
+        static <S> long[] execute(Connection connection, String schemaName, Class<S> targetClass,
+                                  Property keyProperty, Condition where) {
+            KeyRangeStatement<S> statement = null;
+            try {
+                statement = new KeyRangeStatement<>(
+                    new KeyRangeStatementBuilder<>(connection, schemaName, targetClass, keyProperty, where));
+                return statement.execute();
+            }
+            finally {
+                if (statement != null) {
+                    statement.dispose();
+                }
+            }
+        }
+
+        private KeyRangeStatement(KeyRangeStatementBuilder<T> builder) {
+            super(builder);
+        }
+
+        private long[] execute() {
+            doExecute();
+            try (ResultSet resultSet = statement.getResultSet()) {
+                if (!resultSet.next() || resultSet.getObject(1) == null) {
+                    return null;
+                }
+
+                return new long[]{resultSet.getLong(1), resultSet.getLong(2)};
+            }
+            catch (SQLException ex) {
+                throw new ResultSetException(this, ex);
+            }
+        }
+    }
+
+    private static class KeyRangeStatementBuilder<U> extends StatementBuilder<U> {
+
+        KeyRangeStatementBuilder(Connection connection, String schemaName, Class<U> targetClass,
+                                 Property keyProperty, Condition where) {
+            super(connection, schemaName, targetClass);
+            append("select min(");
+            appendFieldName(keyProperty.getName());
+            append("), max(");
+            appendFieldName(keyProperty.getName());
+            append(") from ");
+            appendTableName();
+            appendWhereClause(where);
+        }
+    }
+}
@@ -37,7 +37,7 @@ abstract class ResultGetter {
     protected final Property property;
 
     static ResultGetter create(Connection connection, Property property) {
-        return create(connection, property, StatementBuilder.sqlName(property.getName()));
+        return create(connection, property, columnName(connection, property));
     }
 
     static ResultGetter create(Connection connection, Property property, String columnName) {
@@ -47,7 +47,7 @@ abstract class ResultGetter {
                 throw new UnsupportedPropertyTypeException(property);
             }
 
-            return new LookupGetter(connection, property, key);
+            return new LookupGetter(connection, property, key, columnName);
         }
 
         ResultGetter result = createSimple(property, columnName);
@@ -58,6 +58,19 @@ abstract class ResultGetter {
         return result;
     }
 
+    static String columnName(Connection connection, Property property) {
+        if (connection.isLookup(property.getPropertyClass())) {
+            Property key = property.getType().keyProperty();
+            if (key == null) {
+                throw new UnsupportedPropertyTypeException(property);
+            }
+
+            return StatementBuilder.sqlName(property.getName() + key.getName());
+        }
+
+        return StatementBuilder.sqlName(property.getName());
+    }
+
     private static ResultGetter createSimple(Property property, String columnName) {
         Class<?> propertyClass = property.getPropertyClass();
         if (propertyClass.equals(Binary.class)) {
@@ -142,9 +155,8 @@ abstract class ResultGetter {
         private final Lookup lookup;
         private final ResultGetter retriever;
 
-        public LookupGetter(Connection connection, Property property, Property key) {
+        public LookupGetter(Connection connection, Property property, Property key, String columnName) {
             super(property);
-            String columnName = StatementBuilder.sqlName(property.getName() + key.getName());
             this.lookup = connection.lookupFor(property.getPropertyClass());
             if (this.lookup == null) {
                 throw new MissingLookupException(property.getType());
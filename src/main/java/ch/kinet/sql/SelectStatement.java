@@ -16,12 +16,14 @@
  */
 package ch.kinet.sql;
 
+import ch.kinet.Trace;
 import ch.kinet.reflect.MetaObject;
 import ch.kinet.reflect.Property;
 import ch.kinet.reflect.PropertyValues;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -30,14 +32,42 @@ import java.util.Set;
 
 class SelectStatement<T> extends Statement<T> {
 
+    private static final String MAIN_TABLE_ALIAS = "t0";
     private final MetaObject<T> metaObject;
     private final Map<String, ResultGetter> getters;
+    private final List<Join<?>> joins;
+    private final List<String> keyPropertyNames;
+    private Object maxWatermark;
+    private Long snapshotXmin;
+    private final Watermark.Window watermark;
+    private final Map<Object, Object> watermarkKeys;
 
     static <S> List<S> execute(Connection connection, String schemaName, Class<S> targetClass, Condition where) {
+        return execute(connection, schemaName, targetClass, where, null, Collections.emptyList());
+    }
+
+    static <S> List<S> execute(Connection connection, String schemaName, Class<S> targetClass, Condition where,
+                               Watermark.Window watermark) {
+        return execute(connection, schemaName, targetClass, where, watermark, Collections.emptyList());
+    }
+
+    static <S> List<S> execute(Connection connection, String schemaName, Class<S> targetClass, Condition where,
+                               List<String> joinPropertyNames) {
+        return execute(connection, schemaName, targetClass, where, null, joinPropertyNames);
+    }
+
+    /**
+     * Selects objects without adding them to or updating them in the lookup of the target class. Used when several
+     * selects run in parallel and the caller merges the results into the lookup.
+     */
+    static <S> List<S> executeDetached(Connection connection, String schemaName, Class<S> targetClass,
+                                       Condition where) {
         SelectStatement<S> statement = null;
         try {
-            statement = create(connection, schemaName, targetClass, where);
-            return statement.execute();
+            statement = new SelectStatement<>(
+                new SelectStatementBuilder<>(connection, schemaName, targetClass, where, null, Collections.emptyList()),
+                null);
+            return statement.execute(false);
         }
         finally {
             if (statement != null) {
@@ -46,33 +76,64 @@ class SelectStatement<T> extends Statement<T> {
         }
     }
 
-    private static <T> SelectStatement<T> create(Connection connection, String schemaName, Class<T> targetClass,
-                                                 Condition where) {
-        return new SelectStatement<>(new SelectStatementBuilder<>(connection, schemaName, targetClass, where));
+    private static <S> List<S> execute(Connection connection, String schemaName, Class<S> targetClass,
+                                       Condition where, Watermark.Window watermark,
+                                       List<String> joinPropertyNames) {
+        SelectStatement<S> statement = null;
+        try {
+            statement = new SelectStatement<>(
+                new SelectStatementBuilder<>(connection, schemaName, targetClass, where, watermark, joinPropertyNames),
+                watermark);
+            return statement.execute(true);
+        }
+        finally {
+            if (statement != null) {
+                statement.dispose();
+            }
+        }
     }
 
-    private SelectStatement(SelectStatementBuilder<T> builder) {
+    private SelectStatement(SelectStatementBuilder<T> builder, Watermark.Window watermark) {
         super(builder);
         this.metaObject = builder.metaObject();
         this.getters = builder.getters();
+        this.joins = builder.joins();
+        this.keyPropertyNames = new ArrayList<>();
+        this.watermark = watermark;
+        this.watermarkKeys = watermark == null ? null : new HashMap<>();
+        if (watermark != null) {
+            for (Property property : metaObject.keyProperties()) {
+                keyPropertyNames.add(property.getName());
+            }
+        }
     }
 
-    List<T> execute() {
+    List<T> execute(boolean useLookup) {
         super.doExecute();
         ResultSet resultSet = null;
+        Trace.Span span = Trace.span("sql fetch");
         try {
             resultSet = statement.getResultSet();
-            if (connection().isLookup(dataClass())) {
-                return executeWithLookup(resultSet, connection().lookupFor(dataClass()));
+            List<T> result;
+            if (useLookup && connection().isLookup(dataClass())) {
+                result = executeWithLookup(resultSet, connection().lookupFor(dataClass()));
             }
             else {
-                return executeWithoutLookup(resultSet);
+                result = executeWithoutLookup(resultSet);
+            }
+
+            // Only advance the watermark once the whole result set has been processed successfully
+            if (watermark != null) {
+                watermark.advance(watermarkKeys, maxWatermark, snapshotXmin);
             }
+
+            return result;
         }
         catch (SQLException ex) {
             throw new ResultSetException(this, ex);
         }
         finally {
+            span.close();
             try {
                 resultSet.close();
             }
@@ -86,6 +147,11 @@ class SelectStatement<T> extends Statement<T> {
         final List<T> result = new ArrayList<>();
         final PropertyValueAdapter pva = new PropertyValueAdapter(getters, resultSet);
         while (resultSet.next()) {
+            if (isDelivered(resultSet, pva)) {
+                continue;
+            }
+
+            fetchJoins(resultSet);
             final Object key = pva.getValue(lookup.getKeyPropertyName());
             T element = lookup.get(key);
             if (element == null) {
@@ -105,12 +171,75 @@ class SelectStatement<T> extends Statement<T> {
         final List<T> result = new ArrayList<>();
         final PropertyValueAdapter pva = new PropertyValueAdapter(getters, resultSet);
         while (resultSet.next()) {
+            if (isDelivered(resultSet, pva)) {
+                continue;
+            }
+
+            fetchJoins(resultSet);
             result.add(metaObject.newInstance(pva));
         }
 
         return result;
     }
 
+    private void fetchJoins(ResultSet resultSet) throws SQLException {
+        for (Join<?> join : joins) {
+            join.fetch(resultSet);
+        }
+    }
+
+    /**
+     * Tracks the watermark of the current row. Returns true if the row has already been delivered by a previous
+     * delta select and has not changed since.
+     */
+    private boolean isDelivered(ResultSet resultSet, PropertyValueAdapter pva) throws SQLException {
+        if (watermark == null) {
+            return false;
+        }
+
+        final Object value;
+        if (watermark.isXmin()) {
+            value = resultSet.getLong(Watermark.XMIN_COLUMN);
+            snapshotXmin = resultSet.getLong(Watermark.XMIN_SNAPSHOT_COLUMN);
+        }
+        else {
+            value = pva.getValue(watermark.getPropertyName());
+        }
+
+        if (Watermark.isGreater(value, maxWatermark)) {
+            maxWatermark = value;
+        }
+
+        final Object key = rowKey(pva);
+        if (watermark.isDelivered(key, value)) {
+            return true;
+        }
+
+        if (key != null && value != null) {
+            watermarkKeys.put(key, value);
+        }
+
+        return false;
+    }
+
+    private Object rowKey(PropertyValueAdapter pva) {
+        if (keyPropertyNames.isEmpty()) {
+            // without a key, rows re-read in the watermark window cannot be recognized and are delivered again
+            return null;
+        }
+        else if (keyPropertyNames.size() == 1) {
+            return pva.getValue(keyPropertyNames.get(0));
+        }
+        else {
+            final List<Object> result = new ArrayList<>(keyPropertyNames.size());
+            for (String name : keyPropertyNames) {
+                result.add(pva.getValue(name));
+            }
+
+            return result;
+        }
+    }
+
     private static class PropertyValueAdapter implements PropertyValues {
 
         private final Map<String, ResultGetter> getters;
@@ -138,17 +267,75 @@ class SelectStatement<T> extends Statement<T> {
         }
     }
 
+    /**
+     * A lookup-referenced class whose columns are fetched by a left join. The referenced objects are put into their
+     * lookup before the row is converted, so the lookup getters of the main class can resolve them.
+     */
+    private static class Join<J> {
+
+        private final String alias;
+        private final Map<String, ResultGetter> getters;
+        private final String keyColumnName;
+        private final Lookup<J> lookup;
+        private final MetaObject<J> metaObject;
+        private final Property property;
+
+        Join(Connection connection, Property property, String alias) {
+            @SuppressWarnings("unchecked")
+            final Class<J> joinClass = (Class<J>) property.getPropertyClass();
+            this.alias = alias;
+            this.getters = new HashMap<>();
+            this.lookup = connection.lookupFor(joinClass);
+            if (this.lookup == null) {
+                throw new MissingLookupException(property.getType());
+            }
+
+            this.metaObject = MetaObject.forClass(joinClass);
+            this.keyColumnName = alias + "_" + StatementBuilder.sqlName(metaObject.keyProperty().getName());
+            this.property = property;
+        }
+
+        void fetch(ResultSet resultSet) throws SQLException {
+            // no matching row for the left join
+            if (resultSet.getObject(keyColumnName) == null) {
+                return;
+            }
+
+            final PropertyValueAdapter pva = new PropertyValueAdapter(getters, resultSet);
+            final Object key = pva.getValue(lookup.getKeyPropertyName());
+            J element = lookup.get(key);
+            if (element == null) {
+                element = metaObject.newInstance(pva);
+                lookup.add(element);
+            }
+            else {
+                metaObject.updateInstance(element, pva);
+            }
+        }
+    }
+
     private static class SelectStatementBuilder<T> extends StatementBuilder<T> {
 
         private final Set<String> columnNames;
         private final Map<String, ResultGetter> getters;
+        private final List<Join<?>> joins;
+        private final Watermark.Window watermark;
         private final Condition where;
 
-        SelectStatementBuilder(Connection connection, String schemaName, Class<T> targetClass, Condition where) {
+        SelectStatementBuilder(Connection connection, String schemaName, Class<T> targetClass, Condition where,
+                               Watermark.Window watermark, List<String> joinPropertyNames) {
             super(connection, schemaName, targetClass);
             this.columnNames = new HashSet<>();
             this.getters = new HashMap<>();
+            this.joins = new ArrayList<>();
+            this.watermark = watermark;
             this.where = where;
+            int index = 1;
+            for (String propertyName : joinPropertyNames) {
+                joins.add(new Join<>(connection, metaObject().property(propertyName), "t" + index));
+                ++index;
+            }
+
             build();
         }
 
@@ -156,6 +343,10 @@ class SelectStatement<T> extends Statement<T> {
             return getters;
         }
 
+        final List<Join<?>> joins() {
+            return joins;
+        }
+
         private void appendColumnNames() {
             boolean first = true;
             for (String fieldName : columnNames) {
@@ -171,17 +362,70 @@ class SelectStatement<T> extends Statement<T> {
         }
 
         private void build() {
+            if (!joins.isEmpty()) {
+                setTableAlias(MAIN_TABLE_ALIAS);
+            }
+
             for (Property property : metaObject().persistentProperties()) {
                 final ResultGetter getter = ResultGetter.create(connection(), property);
                 getters.put(property.getName(), getter);
-                columnNames.add(getter.columnName());
+                columnNames.add(qualifiedColumnName(getter.columnName()));
+            }
+
+            if (watermark != null && watermark.isXmin()) {
+                columnNames.add(qualifiedColumnName(Watermark.XMIN) + Watermark.XMIN_CAST + " as " +
+                                Watermark.XMIN_COLUMN);
+                columnNames.add(Watermark.XMIN_SNAPSHOT_SQL + " as " + Watermark.XMIN_SNAPSHOT_COLUMN);
+            }
+
+            for (Join<?> join : joins) {
+                addJoinColumns(join);
             }
 
             append("select ");
             appendColumnNames();
             append(" from ");
             appendTableName();
-            appendWhereClause(where);
+            for (Join<?> join : joins) {
+                appendJoin(join);
+            }
+
+            appendWhereClause(whereWithWatermark());
+        }
+
+        private void addJoinColumns(Join<?> join) {
+            for (Property property : join.metaObject.persistentProperties()) {
+                final String columnName = ResultGetter.columnName(connection(), property);
+                final String label = join.alias + "_" + columnName;
+                join.getters.put(property.getName(), ResultGetter.create(connection(), property, label));
+                columnNames.add(join.alias + "." + columnName + " as " + label);
+            }
+        }
+
+        private void appendJoin(Join<?> join) {
+            append(" left join ");
+            appendTableName(join.metaObject);
+            append(" ");
+            append(join.alias);
+            append(" on ");
+            append(join.alias);
+            append(".");
+            append(ResultGetter.columnName(connection(), join.metaObject.keyProperty()));
+            append(" = ");
+            appendColumnName(ResultGetter.columnName(connection(), join.property));
+        }
+
+        private Condition whereWithWatermark() {
+            final Condition changed = watermark == null ? null : watermark.condition();
+            if (changed == null) {
+                return where;
+            }
+            else if (where == null) {
+                return changed;
+            }
+            else {
+                return Condition.and(where, changed);
+            }
         }
     }
 }
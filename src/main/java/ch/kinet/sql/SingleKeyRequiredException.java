@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2026 by Stefan Rothe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY); without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.kinet.sql;
+
+public class SingleKeyRequiredException extends SqlException {
+
+    SingleKeyRequiredException(Class type) {
+        super(buildMessage(type));
+    }
+
+    private static String buildMessage(Class type) {
+        final StringBuilder result = new StringBuilder();
+        result.append("Class '");
+        result.append(type.getName());
+        result.append("' must have exactly one key property.");
+        return result.toString();
+    }
+}
@@ -16,6 +16,7 @@
  */
 package ch.kinet.sql;
 
+import ch.kinet.Trace;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.List;
@@ -73,13 +74,39 @@ class Statement<T> {
         return dataClass;
     }
 
+    protected final void addBatch() {
+        try {
+            statement.addBatch();
+        }
+        catch (SQLException ex) {
+            throw new StatementExecutionException(sql, ex);
+        }
+    }
+
+    protected final void doExecuteBatch() {
+        Trace.Span span = Trace.span("sql batch", sql);
+        try {
+            statement.executeBatch();
+        }
+        catch (SQLException ex) {
+            throw new StatementExecutionException(sql, ex);
+        }
+        finally {
+            span.close();
+        }
+    }
+
     protected void doExecute() {
+        Trace.Span span = Trace.span("sql", sql);
         try {
             statement.execute();
         }
         catch (SQLException ex) {
             throw new StatementExecutionException(sql, ex);
         }
+        finally {
+            span.close();
+        }
     }
 
     static class BoundParameterSetter {
@@ -95,5 +122,9 @@ class Statement<T> {
         void set(PreparedStatement statement) {
             this.setter.setValue(statement, value);
         }
+
+        Object value() {
+            return value;
+        }
     }
 }
@@ -35,6 +35,7 @@ class StatementBuilder<T> {
     private final String schemaName;
     private final StringBuilder sql;
     private int nextParameterIndex;
+    private String tableAlias;
 
     static String sqlName(String name) {
         StringBuilder result = new StringBuilder();
@@ -76,6 +77,10 @@ class StatementBuilder<T> {
         append("?");
     }
 
+    final void appendColumnName(String columnName) {
+        append(qualifiedColumnName(columnName));
+    }
+
     final void appendFieldName(String propertyName) {
         Property property = metaObject().property(propertyName);
         StringBuilder result = new StringBuilder();
@@ -87,7 +92,7 @@ class StatementBuilder<T> {
             }
         }
 
-        append(sqlName(result.toString()));
+        appendColumnName(sqlName(result.toString()));
     }
 
     final List<Statement.BoundParameterSetter> boundParameterSetters() {
@@ -123,12 +128,20 @@ class StatementBuilder<T> {
     }
 
     protected final void appendTableName() {
+        appendTableName(metaObject());
+        if (tableAlias != null) {
+            append(" ");
+            append(tableAlias);
+        }
+    }
+
+    protected final void appendTableName(MetaObject<?> tableMetaObject) {
         if (!Util.isEmpty(schemaName)) {
             append(schemaName);
             append(".");
         }
 
-        append(sqlName(metaObject().getName()));
+        append(sqlName(tableMetaObject.getName()));
     }
 
     protected final void appendWhereClause(Condition where) {
@@ -142,6 +155,15 @@ class StatementBuilder<T> {
         return columnNames;
     }
 
+    protected final String qualifiedColumnName(String columnName) {
+        if (tableAlias == null) {
+            return columnName;
+        }
+        else {
+            return tableAlias + "." + columnName;
+        }
+    }
+
     protected final String schemaName() {
         return schemaName;
     }
@@ -157,6 +179,10 @@ class StatementBuilder<T> {
         return result.toString();
     }
 
+    protected final void setTableAlias(String tableAlias) {
+        this.tableAlias = tableAlias;
+    }
+
     private ParameterSetter addParameter(Property property) {
         return addParameter(property, sqlName(property.getName()));
     }
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2026 by Stefan Rothe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY); without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.kinet.sql;
+
+public class UnsupportedDbmsException extends SqlException {
+
+    UnsupportedDbmsException(DbSpec.Dbms dbms, String feature) {
+        super(buildMessage(dbms, feature));
+    }
+
+    private static String buildMessage(DbSpec.Dbms dbms, String feature) {
+        final StringBuilder result = new StringBuilder();
+        result.append("Feature '");
+        result.append(feature);
+        result.append("' is not supported by DBMS '");
+        result.append(dbms);
+        result.append("'.");
+        return result.toString();
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2026 by Stefan Rothe
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY); without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ch.kinet.sql;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZonedDateTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Keeps track of the changes already delivered by delta selects. The marker is either the value of a monotonically
+ * increasing property (e.g. a modification timestamp) or the PostgreSQL system column <code>xmin</code>.
+ * <p>
+ * A transaction may commit after a delta select with a marker lower than or equal to one already seen, e.g. a
+ * timestamp taken at the start of a long transaction. Therefore the next select does not start above the highest
+ * marker seen, but re-reads a window below it. For <code>xmin</code> the window starts at the oldest transaction
+ * which was still running when the previous select took its snapshot, for properties it reaches back by the
+ * configured overlap. Rows re-read with an unchanged marker are recognized by their key and skipped.
+ */
+class Watermark {
+
+    static final String XMIN = "xmin";
+    static final String XMIN_CAST = "::text::bigint";
+    static final String XMIN_COLUMN = "xmin_watermark";
+    static final String XMIN_SNAPSHOT_COLUMN = "xmin_snapshot";
+    // xmin is a 32 bit transaction id, txid_current_snapshot includes the epoch
+    static final String XMIN_SNAPSHOT_SQL = "txid_snapshot_xmin(txid_current_snapshot()) % 4294967296";
+    private final Map<Object, Object> delivered = new HashMap<>();
+    private final Duration overlap;
+    private final String propertyName;
+    private Object bound;
+    private Object max;
+
+    static Watermark forProperty(String propertyName, Duration overlap) {
+        return new Watermark(propertyName, overlap);
+    }
+
+    static Watermark forXmin() {
+        return new Watermark(null, Duration.ZERO);
+    }
+
+    /**
+     * Creates the key identifying the watermark of a delta select. Selects of the same class with a different schema
+     * or condition have separate watermarks.
+     */
+    static Key key(String schemaName, Class<?> targetClass, String whereSql, List<Object> whereValues) {
+        return new Key(schemaName, targetClass, whereSql, whereValues);
+    }
+
+    private Watermark(String propertyName, Duration overlap) {
+        this.overlap = overlap;
+        this.propertyName = propertyName;
+    }
+
+    String getPropertyName() {
+        return propertyName;
+    }
+
+    boolean isXmin() {
+        return propertyName == null;
+    }
+
+    boolean matches(String propertyName) {
+        return propertyName == null ? this.propertyName == null : propertyName.equals(this.propertyName);
+    }
+
+    /**
+     * Returns the state for the next delta select. The window is not affected by concurrent selects.
+     */
+    synchronized Window open() {
+        return new Window(this, bound, delivered.isEmpty() ? Collections.emptyMap() : new HashMap<>(delivered));
+    }
+
+    private synchronized void advance(Map<Object, Object> seen, Object selectMax, Long snapshotXmin) {
+        if (isGreater(selectMax, max)) {
+            max = selectMax;
+        }
+
+        Object candidate = isXmin() ? snapshotXmin : subtractOverlap(max);
+        if (isGreater(candidate, bound)) {
+            bound = candidate;
+        }
+
+        delivered.putAll(seen);
+        if (bound != null) {
+            // rows below the bound are never selected again
+            delivered.values().removeIf(marker -> isGreater(bound, marker));
+        }
+    }
+
+    private Object subtractOverlap(Object value) {
+        if (overlap.isZero() || value == null) {
+            return value;
+        }
+        else if (value instanceof LocalDateTime) {
+            return ((LocalDateTime) value).minus(overlap);
+        }
+        else if (value instanceof Instant) {
+            return ((Instant) value).minus(overlap);
+        }
+        else if (value instanceof OffsetDateTime) {
+            return ((OffsetDateTime) value).minus(overlap);
+        }
+        else if (value instanceof ZonedDateTime) {
+            return ((ZonedDateTime) value).minus(overlap);
+        }
+        else if (value instanceof Timestamp) {
+            return Timestamp.from(((Timestamp) value).toInstant().minus(overlap));
+        }
+        else {
+            // dates and numbers are re-read from the highest value seen
+            return value;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static boolean isGreater(Object candidate, Object current) {
+        if (candidate == null) {
+            return false;
+        }
+        else if (current == null) {
+            return true;
+        }
+        else {
+            return ((Comparable<Object>) candidate).compareTo(current) > 0;
+        }
+    }
+
+    static final class Key {
+
+        private final String schemaName;
+        private final Class<?> targetClass;
+        private final List<Object> whereValues;
+        private final String whereSql;
+
+        private Key(String schemaName, Class<?> targetClass, String whereSql, List<Object> whereValues) {
+            this.schemaName = schemaName;
+            this.targetClass = targetClass;
+            this.whereSql = whereSql;
+            this.whereValues = whereValues;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (this == object) {
+                return true;
+            }
+
+            if (!(object instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key) object;
+            return Objects.equals(schemaName, other.schemaName) && targetClass.equals(other.targetClass) &&
+                   whereSql.equals(other.whereSql) && whereValues.equals(other.whereValues);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(schemaName, targetClass, whereSql, whereValues);
+        }
+
+        boolean isFor(Class<?> targetClass) {
+            return this.targetClass.equals(targetClass);
+        }
+    }
+
+    /**
+     * State of the watermark at the start of a single delta select.
+     */
+    static final class Window {
+
+        private final Object bound;
+        private final Map<Object, Object> delivered;
+        private final Watermark watermark;
+
+        private Window(Watermark watermark, Object bound, Map<Object, Object> delivered) {
+            this.bound = bound;
+            this.delivered = delivered;
+            this.watermark = watermark;
+        }
+
+        /**
+         * Records the rows delivered by a successful select. Called only after the whole result has been processed.
+         */
+        void advance(Map<Object, Object> seen, Object selectMax, Long snapshotXmin) {
+            watermark.advance(seen, selectMax, snapshotXmin);
+        }
+
+        Condition condition() {
+            if (bound == null) {
+                return null;
+            }
+            else if (watermark.isXmin()) {
+                return Condition.xminGreaterOrEqual((Long) bound);
+            }
+            else {
+                return Condition.greaterOrEqual(watermark.propertyName, bound);
+            }
+        }
+
+        String getPropertyName() {
+            return watermark.propertyName;
+        }
+
+        /**
+         * Returns true if the row has been delivered before and has not changed since.
+         */
+        boolean isDelivered(Object key, Object marker) {
+            return key != null && marker != null && marker.equals(delivered.get(key));
+        }
+
+        boolean isXmin() {
+            return watermark.isXmin();
+        }
+    }
+}